@@ -1,4 +1,4 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import axios from 'axios';
 import { useWebSocket } from './hooks/useWebSocket';
 import { useChat } from './hooks/useChat';
@@ -22,7 +22,16 @@ function App() {
   const [isLoading, setIsLoading] = useState(true);
   const [isSending, setIsSending] = useState(false);
   const [streamingMessageId, setStreamingMessageId] = useState(null);
-  const [historyLoaded, setHistoryLoaded] = useState(false);
+  // Index of the oldest loaded history entry, sent back to fetch the previous page
+  const [historyCursor, setHistoryCursor] = useState(null);
+  const [hasMoreHistory, setHasMoreHistory] = useState(false);
+  // Newest complete assistant message, sent on reconnect so only missed history is replayed
+  const lastMessageIdRef = useRef(null);
+
+  useEffect(() => {
+    const last = [...messages].reverse().find(m => m.role === 'assistant' && m.is_complete);
+    lastMessageIdRef.current = last?.message_id ?? null;
+  }, [messages]);
 
   // Save session ID to localStorage
   useEffect(() => {
@@ -32,11 +41,16 @@ function App() {
   // WebSocket message handler
   const handleWebSocketMessage = (data) => {
     if (data.type === 'history') {
-      console.log('Received history:', data.messages.length, 'messages');
-      // Only load history once to avoid replacing messages
-      if (!historyLoaded) {
-        loadHistory(data.messages);
-        setHistoryLoaded(true);
+      console.log('Received history:', data.mode, data.messages.length, 'messages');
+      // Every page is merged (deduplicated by message_id); a delta only fills in
+      // what this client missed while disconnected and keeps the paging cursor
+      loadHistory(data.messages);
+      if (data.mode === 'older') {
+        setHistoryCursor((cursor) => cursor === null ? data.cursor : Math.min(cursor, data.cursor));
+        setHasMoreHistory(Boolean(data.has_more));
+      } else if (data.mode !== 'delta') {
+        setHistoryCursor(data.cursor ?? 0);
+        setHasMoreHistory(Boolean(data.has_more));
       }
       setIsLoading(false);
     } else if (data.type === 'message') {
@@ -78,12 +92,19 @@ function App() {
   };
 
   // WebSocket connection
-  const { isConnected, connectionStatus, reconnect, disconnect } = useWebSocket(
+  const { isConnected, connectionStatus, reconnect, disconnect, send } = useWebSocket(
     WEBSOCKET_URL,
     sessionId,
-    handleWebSocketMessage
+    handleWebSocketMessage,
+    () => lastMessageIdRef.current
   );
 
+  // Request the page of history before the oldest loaded message
+  const loadOlderHistory = () => {
+    if (historyCursor === null || !hasMoreHistory) return;
+    send({ type: 'history_page', before: historyCursor, limit: 50 });
+  };
+
   // Send message to AI service
   const sendMessage = async (messageText) => {
     if (!messageText.trim() || isSending) return;
@@ -164,7 +185,12 @@ function App() {
           </button>
         </div>
 
-        <MessageList messages={messages} isLoading={isLoading} />
+        <MessageList
+          messages={messages}
+          isLoading={isLoading}
+          hasMoreHistory={hasMoreHistory}
+          onLoadOlder={loadOlderHistory}
+        />
         
         <ChatInput
           onSend={sendMessage}
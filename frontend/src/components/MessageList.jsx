@@ -1,7 +1,7 @@
 import React, { useEffect, useRef } from 'react';
 import Message from './Message';
 
-const MessageList = ({ messages, isLoading }) => {
+const MessageList = ({ messages, isLoading, hasMoreHistory, onLoadOlder }) => {
   const messagesEndRef = useRef(null);
 
   useEffect(() => {
@@ -37,6 +37,11 @@ const MessageList = ({ messages, isLoading }) => {
 
   return (
     <div className="chat-messages">
+      {hasMoreHistory && (
+        <button className="load-older-btn" onClick={onLoadOlder}>
+          Tải tin nhắn cũ hơn
+        </button>
+      )}
       {messages.map((msg, index) => {
         // Skip messages with missing required fields
         if (!msg || !msg.message_id) {
@@ -41,14 +41,23 @@ export const useChat = () => {
         // NOTE: The server (Python AI service and ChatOrchestrator) already sends
         // accumulated content in the 'content' field. We should NOT accumulate again
         // on the client side to avoid duplicate/overlapping text.
+        // Delta mode (message.delta): server sends only the increment in 'chunk',
+        // so append it to what we already have instead of replacing.
         setMessages((prev) => {
           const index = prev.findIndex(m => m.message_id === message.message_id);
           if (index >= 0) {
+            // Chunks resent on reconnect (recovery from the ack cursor) are already applied
+            if (message.chunk_index != null && prev[index].chunk_index != null &&
+                message.chunk_index <= prev[index].chunk_index) {
+              return prev;
+            }
             // Update message with latest accumulated content from server
             const updated = [...prev];
             updated[index] = {
               ...message,
-              content: message.content || '',
+              content: message.delta
+                ? (prev[index].content || '') + (message.chunk || '')
+                : message.content || '',
               chunk: message.chunk || ''
             };
             streamingMessagesRef.current.set(message.message_id, updated[index]);
@@ -57,7 +66,7 @@ export const useChat = () => {
             // Add new streaming message with initial content
             const newMessage = {
               ...message,
-              content: message.content || '',
+              content: (message.delta ? message.chunk : message.content) || '',
               chunk: message.chunk || ''
             };
             streamingMessagesRef.current.set(message.message_id, newMessage);
@@ -2,24 +2,38 @@ import { useState, useEffect, useRef, useCallback } from 'react';
 
 const RECONNECT_DELAY = 2000;
 const PING_INTERVAL = 30000;
+// Credit flow control: stream chunks the server may send ahead of processing
+const CREDIT_WINDOW = 64;
+// Highest rendered chunk is acknowledged at most this often; the server resumes from it on reconnect
+const ACK_INTERVAL = 1000;
 
 /**
  * Custom hook for WebSocket connection management
+ * getLastMessageId (optional) returns the newest message the client already has,
+ * so a reconnect only replays the history it missed
  */
-export const useWebSocket = (url, sessionId, onMessage) => {
+export const useWebSocket = (url, sessionId, onMessage, getLastMessageId) => {
   const [isConnected, setIsConnected] = useState(false);
   const [connectionStatus, setConnectionStatus] = useState('disconnected');
 
   const wsRef = useRef(null);
   const reconnectTimeoutRef = useRef(null);
   const pingIntervalRef = useRef(null);
+  const ackIntervalRef = useRef(null);
+  const ackRef = useRef(null);
+  const hasConnectedRef = useRef(false);
+  // Server-suggested reconnect delay after it refused the connection (overloaded)
+  const retryAfterRef = useRef(null);
   const manualDisconnectRef = useRef(false);
+  const consumedChunksRef = useRef(0);
   const onMessageRef = useRef(onMessage);
+  const getLastMessageIdRef = useRef(getLastMessageId);
 
-  // Update the ref when onMessage changes
+  // Update the refs when the callbacks change
   useEffect(() => {
     onMessageRef.current = onMessage;
-  }, [onMessage]);
+    getLastMessageIdRef.current = getLastMessageId;
+  }, [onMessage, getLastMessageId]);
 
   const connect = useCallback(() => {
     // Prevent multiple connections
@@ -40,13 +54,33 @@ export const useWebSocket = (url, sessionId, onMessage) => {
 
     try {
       // Include user_id and dev-token for authentication (development mode)
-      const ws = new WebSocket(`${url}?session_id=${sessionId}&user_id=demo_user&token=dev-token`);
+      const lastMessageId = getLastMessageIdRef.current?.();
+      const resume = lastMessageId ? `&last_message_id=${encodeURIComponent(lastMessageId)}` : '';
+      const ws = new WebSocket(`${url}?session_id=${sessionId}&user_id=demo_user&token=dev-token${resume}`);
 
       ws.onopen = () => {
         console.log('WebSocket connected');
         setIsConnected(true);
         setConnectionStatus('connected');
 
+        // Grant the initial credit window
+        consumedChunksRef.current = 0;
+        ws.send(JSON.stringify({ type: 'credit', chunks: CREDIT_WINDOW }));
+
+        // After a drop, resume the in-flight stream from the server-side ack cursor
+        if (hasConnectedRef.current) {
+          ws.send(JSON.stringify({ type: 'reconnect' }));
+        }
+        hasConnectedRef.current = true;
+
+        ackIntervalRef.current = setInterval(() => {
+          const ack = ackRef.current;
+          if (ack && !ack.sent && ws.readyState === WebSocket.OPEN) {
+            ws.send(JSON.stringify({ type: 'ack', message_id: ack.message_id, index: ack.index }));
+            ack.sent = true;
+          }
+        }, ACK_INTERVAL);
+
         // Setup ping interval to keep connection alive
         pingIntervalRef.current = setInterval(() => {
           if (ws.readyState === WebSocket.OPEN) {
@@ -58,7 +92,33 @@ export const useWebSocket = (url, sessionId, onMessage) => {
       ws.onmessage = (event) => {
         try {
           const data = JSON.parse(event.data);
-          onMessageRef.current(data);
+          if (data.type === 'error' && data.retry_after_ms) {
+            retryAfterRef.current = data.retry_after_ms;
+          }
+          const frames = data.type === 'batch' && Array.isArray(data.frames)
+            ? data.frames  // Coalesced chunk frames from the server
+            : [data];
+          frames.forEach((frame) => onMessageRef.current(frame));
+
+          // Remember the highest rendered chunk for the next ack
+          frames.forEach(({ type, data: chunk }) => {
+            if (type !== 'message' || !chunk || chunk.is_complete || chunk.chunk_index == null) {
+              return;
+            }
+            const ack = ackRef.current;
+            if (!ack || ack.message_id !== chunk.message_id || chunk.chunk_index > ack.index) {
+              ackRef.current = { message_id: chunk.message_id, index: chunk.chunk_index, sent: false };
+            }
+          });
+
+          // Return credit for processed chunks, half a window at a time
+          consumedChunksRef.current += frames
+            .filter((frame) => frame.type === 'message' && frame.data && !frame.data.is_complete)
+            .length;
+          if (consumedChunksRef.current >= CREDIT_WINDOW / 2 && ws.readyState === WebSocket.OPEN) {
+            ws.send(JSON.stringify({ type: 'credit', chunks: consumedChunksRef.current }));
+            consumedChunksRef.current = 0;
+          }
         } catch (error) {
           console.error('Error parsing WebSocket message:', error);
         }
@@ -73,11 +133,15 @@ export const useWebSocket = (url, sessionId, onMessage) => {
         console.log('WebSocket disconnected', { manual: manualDisconnectRef.current });
         setIsConnected(false);
 
-        // Clear ping interval
+        // Clear ping and ack intervals
         if (pingIntervalRef.current) {
           clearInterval(pingIntervalRef.current);
           pingIntervalRef.current = null;
         }
+        if (ackIntervalRef.current) {
+          clearInterval(ackIntervalRef.current);
+          ackIntervalRef.current = null;
+        }
 
         // Clear the websocket ref
         if (wsRef.current === ws) {
@@ -87,10 +151,12 @@ export const useWebSocket = (url, sessionId, onMessage) => {
         // Only auto-reconnect if not manually disconnected
         if (!manualDisconnectRef.current) {
           setConnectionStatus('reconnecting');
+          const delay = retryAfterRef.current ?? RECONNECT_DELAY;
+          retryAfterRef.current = null;
           reconnectTimeoutRef.current = setTimeout(() => {
             console.log('Attempting to reconnect...');
             connect();
-          }, RECONNECT_DELAY);
+          }, delay);
         } else {
           setConnectionStatus('disconnected');
           console.log('Manual disconnect - not reconnecting');
@@ -115,6 +181,11 @@ export const useWebSocket = (url, sessionId, onMessage) => {
       pingIntervalRef.current = null;
     }
 
+    if (ackIntervalRef.current) {
+      clearInterval(ackIntervalRef.current);
+      ackIntervalRef.current = null;
+    }
+
     if (wsRef.current) {
       // Close the connection if it's open
       if (wsRef.current.readyState === WebSocket.OPEN ||
@@ -139,6 +210,15 @@ export const useWebSocket = (url, sessionId, onMessage) => {
     cleanup();
   }, [cleanup]);
 
+  // Send a JSON message to the server (dropped while disconnected)
+  const send = useCallback((data) => {
+    if (wsRef.current?.readyState !== WebSocket.OPEN) {
+      return false;
+    }
+    wsRef.current.send(JSON.stringify(data));
+    return true;
+  }, []);
+
   useEffect(() => {
     connect();
     return () => {
@@ -153,6 +233,7 @@ export const useWebSocket = (url, sessionId, onMessage) => {
     isConnected,
     connectionStatus,
     reconnect: connect,
-    disconnect
+    disconnect,
+    send
   };
 };
@@ -0,0 +1,114 @@
+package com.demo.websocket.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.server.ServerEndpointConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upgrade strategy controlling permessage-deflate (RFC 7692) per endpoint
+ *
+ * The servlet container negotiates extensions from the raw
+ * Sec-WebSocket-Extensions request header, so the offer is rewritten before
+ * the upgrade:
+ * - deflate disabled: permessage-deflate offers are removed
+ * - context takeover disabled: server_no_context_takeover and/or
+ *   client_no_context_takeover are added to the offer, trading compression
+ *   ratio for less per-connection memory (no sliding window kept between messages)
+ */
+@Slf4j
+public class DeflateNegotiationUpgradeStrategy extends StandardWebSocketUpgradeStrategy {
+
+    static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean deflateEnabled;
+    private final boolean serverContextTakeover;
+    private final boolean clientContextTakeover;
+
+    public DeflateNegotiationUpgradeStrategy(boolean deflateEnabled,
+                                             boolean serverContextTakeover,
+                                             boolean clientContextTakeover) {
+        this.deflateEnabled = deflateEnabled;
+        this.serverContextTakeover = serverContextTakeover;
+        this.clientContextTakeover = clientContextTakeover;
+    }
+
+    @Override
+    protected void upgradeHttpToWebSocket(HttpServletRequest request,
+                                          HttpServletResponse response,
+                                          ServerEndpointConfig endpointConfig,
+                                          Map<String, String> pathParams) throws Exception {
+        super.upgradeHttpToWebSocket(new ExtensionOfferRequest(request), response, endpointConfig, pathParams);
+    }
+
+    /**
+     * Rewrite one header value (comma-separated extension offers)
+     */
+    String rewriteOffers(String headerValue) {
+        List<String> offers = new ArrayList<>();
+        for (String offer : headerValue.split(",")) {
+            String trimmed = offer.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String name = trimmed.split(";", 2)[0].trim();
+            if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(name)) {
+                offers.add(trimmed);
+                continue;
+            }
+            if (!deflateEnabled) {
+                continue;
+            }
+            StringBuilder rewritten = new StringBuilder(trimmed);
+            if (!serverContextTakeover && !trimmed.contains("server_no_context_takeover")) {
+                rewritten.append("; server_no_context_takeover");
+            }
+            if (!clientContextTakeover && !trimmed.contains("client_no_context_takeover")) {
+                rewritten.append("; client_no_context_takeover");
+            }
+            offers.add(rewritten.toString());
+        }
+        return String.join(", ", offers);
+    }
+
+    private class ExtensionOfferRequest extends HttpServletRequestWrapper {
+
+        ExtensionOfferRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                return super.getHeader(name);
+            }
+            Enumeration<String> values = getHeaders(name);
+            return values.hasMoreElements() ? values.nextElement() : null;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (!EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                return super.getHeaders(name);
+            }
+            List<String> values = new ArrayList<>();
+            Enumeration<String> original = super.getHeaders(name);
+            while (original != null && original.hasMoreElements()) {
+                String rewritten = rewriteOffers(original.nextElement());
+                if (!rewritten.isEmpty()) {
+                    values.add(rewritten);
+                }
+            }
+            return Collections.enumeration(values);
+        }
+    }
+}
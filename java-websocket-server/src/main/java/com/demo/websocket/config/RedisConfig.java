@@ -10,6 +10,7 @@ import org.redisson.config.Config;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -60,6 +61,10 @@ public class RedisConfig {
             RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+        // Deliver in order on the subscription thread; RedisChannelRouter hands
+        // messages to the bounded per-session KeyedDispatchExecutor, whose
+        // overflow policy never parks this shared I/O thread for long
+        container.setTaskExecutor(new SyncTaskExecutor());
         // Spring will automatically call afterPropertiesSet() and start the container
         // Dynamic subscription will be handled by ChatOrchestrator
         return container;
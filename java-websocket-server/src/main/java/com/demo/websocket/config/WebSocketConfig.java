@@ -1,10 +1,14 @@
 package com.demo.websocket.config;
 
 import com.demo.websocket.handler.ChatWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.Set;
 
 @Configuration
 @EnableWebSocket
@@ -12,6 +16,16 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     private final ChatWebSocketHandler chatWebSocketHandler;
 
+    // Endpoints allowed to negotiate permessage-deflate
+    @Value("${websocket.compression.endpoints:/ws/chat,/ws/chat/v2}")
+    private Set<String> compressionEndpoints;
+
+    @Value("${websocket.compression.server-context-takeover:true}")
+    private boolean serverContextTakeover;
+
+    @Value("${websocket.compression.client-context-takeover:true}")
+    private boolean clientContextTakeover;
+
     public WebSocketConfig(ChatWebSocketHandler chatWebSocketHandler) {
         this.chatWebSocketHandler = chatWebSocketHandler;
     }
@@ -20,10 +34,25 @@ public class WebSocketConfig implements WebSocketConfigurer {
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // Unified handler with both legacy and enhanced features
         registry.addHandler(chatWebSocketHandler, "/ws/chat")
+                .setHandshakeHandler(handshakeHandler("/ws/chat"))
                 .setAllowedOrigins("*"); // In production, specify exact origins
 
         // Register same handler for v2 endpoint for backward compatibility
         registry.addHandler(chatWebSocketHandler, "/ws/chat/v2")
+                .setHandshakeHandler(handshakeHandler("/ws/chat/v2"))
                 .setAllowedOrigins("*"); // In production, specify exact origins
+
+        // Binary protocol (v3): compact chunk frames, see BinaryFrameEncoder
+        registry.addHandler(chatWebSocketHandler, "/ws/chat/v3")
+                .setHandshakeHandler(handshakeHandler("/ws/chat/v3"))
+                .setAllowedOrigins("*"); // In production, specify exact origins
+    }
+
+    /**
+     * Handshake handler with permessage-deflate negotiation for one endpoint
+     */
+    private DefaultHandshakeHandler handshakeHandler(String path) {
+        return new DefaultHandshakeHandler(new DeflateNegotiationUpgradeStrategy(
+                compressionEndpoints.contains(path), serverContextTakeover, clientContextTakeover));
     }
 }
@@ -1,5 +1,8 @@
 package com.demo.websocket.controller;
 
+import com.demo.websocket.exception.RateLimitException;
+import com.demo.websocket.service.SecurityValidator;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,13 +26,15 @@ import java.util.Map;
 public class ChatController {
 
     private final RestTemplate restTemplate;
+    private final SecurityValidator securityValidator;
     
     @Value("${ai.service.url:http://python-ai:8000}")
     private String aiServiceUrl;
 
     @Autowired
-    public ChatController(RestTemplate restTemplate) {
+    public ChatController(RestTemplate restTemplate, SecurityValidator securityValidator) {
         this.restTemplate = restTemplate;
+        this.securityValidator = securityValidator;
     }
 
     /**
@@ -37,8 +42,23 @@ public class ChatController {
      * POST /api/chat
      */
     @PostMapping("/chat")
-    public ResponseEntity<?> sendMessage(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> sendMessage(@RequestBody Map<String, Object> request,
+                                         @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                         HttpServletRequest httpRequest) {
         try {
+            // Stop abusive clients before they reach the AI service and the chunk pipeline,
+            // keyed on an identity the server verified (never on body fields)
+            String identity = clientIdentity(authorization, httpRequest);
+            if (identity == null) {
+                return ResponseEntity
+                        .status(HttpStatus.UNAUTHORIZED)
+                        .body(Map.of(
+                                "error", "Unauthorized",
+                                "detail", "Invalid token or unknown client address"
+                        ));
+            }
+            securityValidator.enforceRateLimit(identity, SecurityValidator.RateLimitScope.CHAT);
+
             log.info("Proxying chat request to AI service: session_id={}", 
                     request.get("session_id"));
             
@@ -62,6 +82,17 @@ public class ChatController {
             return ResponseEntity
                     .status(response.getStatusCode())
                     .body(response.getBody());
+
+        } catch (RateLimitException e) {
+            long retryAfterMs = e.getRetryAfterMs();
+            return ResponseEntity
+                    .status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf((retryAfterMs + 999) / 1000))
+                    .body(Map.of(
+                            "error", "Too many requests",
+                            "detail", e.getMessage(),
+                            "retry_after_ms", retryAfterMs
+                    ));
                     
         } catch (HttpClientErrorException e) {
             log.error("Client error from AI service: status={}, body={}", 
@@ -103,6 +134,29 @@ public class ChatController {
         }
     }
 
+    /**
+     * Rate-limit identity: the subject of a valid bearer JWT, otherwise the client
+     * address (forwarded addresses are only trusted from internal proxies, see
+     * server.forward-headers-strategy). Null if the token is invalid or there is
+     * no address. The development token carries no subject and counts as absent.
+     */
+    private String clientIdentity(String authorization, HttpServletRequest httpRequest) {
+        String token = authorization != null && authorization.startsWith("Bearer ")
+                ? authorization.substring(7).trim() : null;
+        if (token != null && !token.isEmpty() && !"dev-token".equals(token)) {
+            String subject;
+            try {
+                subject = securityValidator.extractUserId(token);
+            } catch (Exception e) {
+                log.warn("Rejected chat request with invalid token: {}", e.getMessage());
+                return null;
+            }
+            return subject != null && securityValidator.validateToken(token, subject) ? "user:" + subject : null;
+        }
+        String address = httpRequest.getRemoteAddr();
+        return address != null && !address.isBlank() ? "addr:" + address : null;
+    }
+
     /**
      * Cancel streaming message
      * POST /api/cancel
@@ -221,7 +221,7 @@ public class HealthController {
      */
     private int getDistributedSessionCount() {
         try {
-            return redissonClient.getMap("sessions:active").size();
+            return redissonClient.getMapCache(SessionManager.ACTIVE_SESSIONS_KEY).size();
         } catch (Exception e) {
             log.error("Failed to get distributed session count", e);
             return -1;
@@ -0,0 +1,36 @@
+package com.demo.websocket.controller;
+
+import com.demo.websocket.infrastructure.StreamTracer;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint exposing the per-stream trace rings
+ * GET /actuator/streamtrace             -> sessions and retained event counts
+ * GET /actuator/streamtrace/{sessionId} -> events of one session, oldest first
+ */
+@Component
+@Endpoint(id = "streamtrace")
+public class StreamTraceEndpoint {
+
+    private final StreamTracer streamTracer;
+
+    public StreamTraceEndpoint(StreamTracer streamTracer) {
+        this.streamTracer = streamTracer;
+    }
+
+    @ReadOperation
+    public Map<String, Integer> sessions() {
+        return streamTracer.sessions();
+    }
+
+    @ReadOperation
+    public List<StreamTracer.TraceEvent> trace(@Selector String sessionId) {
+        return streamTracer.dump(sessionId);
+    }
+}
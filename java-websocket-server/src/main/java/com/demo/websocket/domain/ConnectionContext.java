@@ -0,0 +1,107 @@
+package com.demo.websocket.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-connection identity resolved once at handshake
+ * Stored in the WebSocketSession attributes under {@link #ATTRIBUTE}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConnectionContext {
+    public static final String ATTRIBUTE = "connectionContext";
+    /** Messages whose queued chunk index is kept for ack validation */
+    private static final int RECENT_MESSAGES = 8;
+
+    private String sessionId;
+    private String userId;
+    private String token;
+    /** Connected on the binary protocol endpoint (/ws/chat/v3) */
+    private boolean binaryProtocol;
+    /** Newest message the client already has (last_message_id), history is replayed after it */
+    private String lastMessageId;
+
+    /**
+     * High-water mark between the history replay and live frames, which
+     * overlap while a message completes during the replay
+     */
+    @Builder.Default
+    private Set<String> replayedMessageIds = new HashSet<>();
+    @Builder.Default
+    private Set<String> liveCompletedIds = new HashSet<>();
+    private boolean historyReplayed;
+
+    /** Highest chunk index queued on this connection, for the current and recent messages */
+    @Builder.Default
+    private Map<String, Integer> queuedChunks = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > RECENT_MESSAGES;
+        }
+    };
+
+    /**
+     * Record the messages of the history replay
+     * Returns those already delivered live, which the replay must skip
+     */
+    public synchronized Set<String> markReplayed(Collection<String> messageIds) {
+        replayedMessageIds.addAll(messageIds);
+        historyReplayed = true;
+        Set<String> delivered = new HashSet<>(liveCompletedIds);
+        liveCompletedIds.clear();
+        return delivered;
+    }
+
+    /**
+     * Whether a live frame for this message is new to the client
+     * False if the history replay already delivered the complete message
+     */
+    public synchronized boolean acceptLive(String messageId, boolean complete) {
+        if (replayedMessageIds.contains(messageId)) {
+            return false;
+        }
+        if (complete && !historyReplayed) {
+            liveCompletedIds.add(messageId);
+        }
+        return true;
+    }
+
+    /**
+     * Record a chunk frame queued for the client
+     */
+    public synchronized void recordQueuedChunk(String messageId, int index) {
+        queuedChunks.merge(messageId, index, Math::max);
+    }
+
+    /**
+     * Claim a chunk for queueing; false if it or a later chunk of its message is already queued
+     * The owning node receives each chunk twice: from its stream callback and its own fan-out
+     */
+    public synchronized boolean claimChunk(String messageId, int index) {
+        Integer queued = queuedChunks.get(messageId);
+        if (queued != null && index <= queued) {
+            return false;
+        }
+        queuedChunks.put(messageId, index);
+        return true;
+    }
+
+    /**
+     * Highest chunk index queued for a message, or -1 if it is not a current or recent message
+     */
+    public synchronized int highestQueuedChunk(String messageId) {
+        Integer index = queuedChunks.get(messageId);
+        return index != null ? index : -1;
+    }
+}
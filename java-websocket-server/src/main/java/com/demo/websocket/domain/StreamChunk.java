@@ -1,5 +1,6 @@
 package com.demo.websocket.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -51,6 +52,18 @@ public class StreamChunk implements Serializable {
     @Column(columnDefinition = "TEXT")
     private Map<String, Object> metadata;
 
+    /**
+     * Metadata flag marking content as an increment over the previous chunk
+     * (absent = content is the full accumulated text)
+     */
+    public static final String DELTA_METADATA_KEY = "delta";
+
+    @JsonIgnore
+    @Transient
+    public boolean isDelta() {
+        return metadata != null && Boolean.TRUE.equals(metadata.get(DELTA_METADATA_KEY));
+    }
+
     public enum ChunkType {
         TEXT,
         CODE,
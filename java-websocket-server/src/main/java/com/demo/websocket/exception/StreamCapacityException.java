@@ -1,8 +1,20 @@
 package com.demo.websocket.exception;
 
 public class StreamCapacityException extends RuntimeException {
-    
+
+    /** Suggested delay before the client retries, 0 if none */
+    private final long retryAfterMs;
+
     public StreamCapacityException(String message) {
+        this(message, 0);
+    }
+
+    public StreamCapacityException(String message, long retryAfterMs) {
         super(message);
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
     }
 }
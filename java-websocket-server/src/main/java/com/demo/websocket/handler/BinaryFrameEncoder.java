@@ -0,0 +1,135 @@
+package com.demo.websocket.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary protocol (v3) encoder, one instance per connection
+ *
+ * Wire format (first byte = frame type, integers are unsigned LEB128 varints):
+ * - 0x00 JSON:   [0x00][UTF-8 JSON, same documents as the text protocol]
+ * - 0x01 HANDLE: [0x01][varint handle][UTF-8 message id]
+ *                declares a per-connection handle before its first chunk
+ * - 0x02 CHUNK:  [0x02][varint handle][varint chunk index][flags][UTF-8 text]
+ *                flags bit 0 (RESET): replace the message text instead of appending
+ *
+ * Chunk text is always a delta: accumulated content is diffed against the
+ * last text sent for the handle, so a token costs a few bytes of framing
+ * instead of a full JSON document. Chunks at or below the last index sent
+ * for a handle (duplicates from callback and fan-out delivery) are skipped.
+ *
+ * If a frame cannot be queued, reset() makes the next chunk of the message
+ * declare its handle again and carry RESET, so the client resynchronizes.
+ */
+final class BinaryFrameEncoder {
+
+    static final byte JSON = 0x00;
+    static final byte HANDLE = 0x01;
+    static final byte CHUNK = 0x02;
+    static final int FLAG_RESET = 0x01;
+
+    private final Map<String, MessageState> handles = new HashMap<>();
+    private int nextHandle;
+
+    /**
+     * Encode a chunk; returns the frames to send in order (possibly none)
+     */
+    List<byte[]> encodeChunk(String messageId, int index, String content, boolean delta) {
+        List<byte[]> frames = new ArrayList<>(2);
+        MessageState state = handles.get(messageId);
+        if (state == null) {
+            state = new MessageState(nextHandle++);
+            handles.put(messageId, state);
+        } else if (index <= state.lastIndex) {
+            return frames;
+        }
+        if (!state.declared) {
+            frames.add(handleFrame(state.handle, messageId));
+            state.declared = true;
+        }
+        state.lastIndex = index;
+
+        String text = content != null ? content : "";
+        int flags = 0;
+        if (delta) {
+            // Client appends; the full text is not tracked until the next accumulated chunk resets it
+            state.text = null;
+        } else if (state.text != null && text.startsWith(state.text)) {
+            String accumulated = text;
+            text = text.substring(state.text.length());
+            state.text = accumulated;
+        } else {
+            flags = FLAG_RESET;
+            state.text = text;
+        }
+
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length + 8);
+        out.write(CHUNK);
+        writeVarint(out, state.handle);
+        writeVarint(out, index);
+        out.write(flags);
+        out.writeBytes(utf8);
+        frames.add(out.toByteArray());
+        return frames;
+    }
+
+    /**
+     * A frame of the message at the given index was not queued: resend from
+     * that index with the handle declared again and the text replaced
+     */
+    void reset(String messageId, int index) {
+        MessageState state = handles.get(messageId);
+        if (state != null) {
+            state.declared = false;
+            state.text = null;
+            state.lastIndex = Math.min(state.lastIndex, index - 1);
+        }
+    }
+
+    /**
+     * Forget a message once it is complete
+     */
+    void release(String messageId) {
+        handles.remove(messageId);
+    }
+
+    static byte[] jsonFrame(String json) {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[utf8.length + 1];
+        frame[0] = JSON;
+        System.arraycopy(utf8, 0, frame, 1, utf8.length);
+        return frame;
+    }
+
+    private static byte[] handleFrame(int handle, String messageId) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(messageId.length() + 6);
+        out.write(HANDLE);
+        writeVarint(out, handle);
+        out.writeBytes(messageId.getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class MessageState {
+        final int handle;
+        int lastIndex = -1;
+        String text = "";
+        boolean declared;
+
+        MessageState(int handle) {
+            this.handle = handle;
+        }
+    }
+}
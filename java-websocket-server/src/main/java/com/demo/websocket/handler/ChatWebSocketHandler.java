@@ -1,6 +1,8 @@
 package com.demo.websocket.handler;
 
 import com.demo.websocket.domain.*;
+import com.demo.websocket.exception.RateLimitException;
+import com.demo.websocket.exception.StreamCapacityException;
 import com.demo.websocket.infrastructure.*;
 import com.demo.websocket.model.ChatMessage;
 import com.demo.websocket.service.ChatHistoryService;
@@ -8,7 +10,9 @@ import com.demo.websocket.service.RedisMessageListener;
 import com.demo.websocket.service.MetricsService;
 import com.demo.websocket.service.SecurityValidator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -16,10 +20,17 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Component
@@ -33,12 +44,60 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     private final RedisMessageListener redisMessageListener;
     private final MetricsService metricsService;
     private final SecurityValidator securityValidator;
+    private final StreamTracer streamTracer;
+    private final RedisStreamCache streamCache;
+    private final SessionLaneExecutor sessionLanes;
+    private final AckCursorStore ackCursors;
+    private final AdmissionController admissionController;
 
     // Legacy sessionId -> List of WebSocketSessions (for backward compatibility)
     private final Map<String, ConcurrentHashMap<String, WebSocketSession>> sessionMap = new ConcurrentHashMap<>();
     
-    // Per-session locks for synchronized WebSocket writes to prevent TEXT_PARTIAL_WRITING error
-    private final Map<String, Object> sessionLocks = new ConcurrentHashMap<>();
+    // Per-connection outbound queues, drained by the writer pool (one writer per connection at a time)
+    private final Map<String, OutboundMessageQueue> outboundQueues = new ConcurrentHashMap<>();
+    private final ExecutorService outboundWriter;
+    private final ScheduledExecutorService coalesceTimer;
+
+    private static final String BINARY_ENCODER_ATTRIBUTE = "binaryEncoder";
+    private static final String CREDIT_WINDOW_ATTRIBUTE = "creditWindow";
+    private static final String ADMITTED_ATTRIBUTE = "admitted";
+
+    @Value("${websocket.outbound.buffer-size-limit:524288}")
+    private int outboundBufferSizeLimit;
+
+    @Value("${websocket.outbound.send-time-limit-ms:10000}")
+    private long outboundSendTimeLimitMs;
+
+    @Value("${websocket.outbound.overflow-policy:coalesce}")
+    private String outboundOverflowPolicy;
+
+    // Chunk frame coalescing window (0 = disabled)
+    @Value("${websocket.outbound.coalesce-window-ms:0}")
+    private long coalesceWindowMs;
+
+    @Value("${websocket.outbound.coalesce-max-bytes:16384}")
+    private int coalesceMaxBytes;
+
+    // Sample every Nth frame of deflate connections to estimate ratio/CPU (0 = off)
+    @Value("${websocket.compression.stats-sample-rate:16}")
+    private int compressionStatsSampleRate;
+
+    @Value("${websocket.compression.server-context-takeover:true}")
+    private boolean serverContextTakeover;
+
+    // History paging: latest page sent on connect, older pages on "history_page" requests
+    @Value("${websocket.history.initial-page-size:50}")
+    private int historyInitialPageSize;
+
+    @Value("${websocket.history.max-page-size:200}")
+    private int historyMaxPageSize;
+
+    @Value("${websocket.history.fragment-size:65536}")
+    private int historyFragmentSize;
+
+    // Credit flow control: chunk bytes held per connection before a message spills to the cache
+    @Value("${websocket.flow.max-held-bytes:65536}")
+    private int flowMaxHeldBytes;
 
     public ChatWebSocketHandler(ObjectMapper objectMapper,
                                  SessionManager sessionManager,
@@ -47,7 +106,14 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                                  ChatHistoryService chatHistoryService,
                                  RedisMessageListener redisMessageListener,
                                  MetricsService metricsService,
-                                 SecurityValidator securityValidator) {
+                                 SecurityValidator securityValidator,
+                                 StreamTracer streamTracer,
+                                 RedisStreamCache streamCache,
+                                 SessionLaneExecutor sessionLanes,
+                                 AckCursorStore ackCursors,
+                                 AdmissionController admissionController,
+                                 @Value("${websocket.outbound.writer-threads:0}") int writerThreads,
+                                 @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
         this.objectMapper = objectMapper;
         this.sessionManager = sessionManager;
         this.chatOrchestrator = chatOrchestrator;
@@ -56,6 +122,40 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         this.redisMessageListener = redisMessageListener;
         this.metricsService = metricsService;
         this.securityValidator = securityValidator;
+        this.streamTracer = streamTracer;
+        this.streamCache = streamCache;
+        this.sessionLanes = sessionLanes;
+        this.ackCursors = ackCursors;
+        this.admissionController = admissionController;
+        admissionController.registerOutboundBytes(() -> {
+            long total = 0;
+            for (OutboundMessageQueue queue : outboundQueues.values()) {
+                total += queue.bufferedBytes();
+            }
+            return total;
+        });
+
+        AtomicInteger writerIndex = new AtomicInteger();
+        if (VirtualThreads.resolve(virtualThreads, "WebSocket writers")) {
+            // One writer thread per draining connection instead of a fixed pool
+            this.outboundWriter = Executors.newCachedThreadPool(r ->
+                    VirtualThreads.newThread(r, "ws-writer-" + writerIndex.getAndIncrement(), true));
+        } else {
+            int threads = writerThreads > 0 ? writerThreads : Runtime.getRuntime().availableProcessors();
+            this.outboundWriter = Executors.newFixedThreadPool(threads, r ->
+                    VirtualThreads.newThread(r, "ws-writer-" + writerIndex.getAndIncrement(), false));
+        }
+        this.coalesceTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ws-coalesce-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coalesceTimer.shutdown();
+        outboundWriter.shutdown();
     }
 
     @Override
@@ -64,19 +164,25 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         String userId = null;
         
         try {
-            userId = extractUserId(wsSession);
-            sessionId = extractSessionId(wsSession);
-            String token = extractToken(wsSession);
+            ConnectionContext context = connectionContext(wsSession);
+            userId = context.getUserId();
+            sessionId = context.getSessionId();
+            String token = context.getToken();
 
             // Security validation
             if (!securityValidator.validateToken(token, userId)) {
                 log.warn("Invalid token for user: userId={}", userId);
                 metricsService.recordWebSocketConnection(userId, false);
                 sendError(wsSession, "Authentication failed");
-                wsSession.close(CloseStatus.NOT_ACCEPTABLE);
+                closeAfterFlush(wsSession, CloseStatus.NOT_ACCEPTABLE);
                 return;
             }
 
+            // Per-user connect limit, then node load shedding: refuse before any per-connection state is created
+            securityValidator.enforceRateLimit(userId, SecurityValidator.RateLimitScope.CONNECT);
+            admissionController.admitConnection(chatOrchestrator.getActiveStreamCount());
+            wsSession.getAttributes().put(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+
             // Legacy session tracking (for backward compatibility with old clients)
             sessionMap.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>())
                       .put(wsSession.getId(), wsSession);
@@ -104,15 +210,14 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             chatOrchestrator.startStreamingSession(sessionId, userId,
                     new WebSocketStreamCallback(wsSession));
             
-            // STEP 2: Then read and send chat history
-            // Note: History may contain chunks that we'll also receive via PubSub (duplicates)
-            // The client will deduplicate based on message_id
-            log.info("🔧 FIX: Now reading history (may have duplicates, client will deduplicate)");
+            // STEP 2: Then read and send chat history (only what the client missed)
+            // Overlap with PubSub is suppressed per connection by the history high-water mark
             sendChatHistory(wsSession, sessionId);
-            
-            // Result: No data loss! May have duplicates but that's acceptable
-            // Duplicates will be filtered by client based on message_id
 
+        } catch (RateLimitException e) {
+            rejectConnection(wsSession, sessionId, userId, "RATE_LIMITED", e.getMessage(), e.getRetryAfterMs());
+        } catch (StreamCapacityException e) {
+            rejectConnection(wsSession, sessionId, userId, "OVERLOADED", e.getMessage(), e.getRetryAfterMs());
         } catch (SecurityException e) {
             log.error("Security violation during connection: sessionId={}", sessionId, e);
             if (userId != null) {
@@ -120,7 +225,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             }
             metricsService.recordError("SECURITY_VIOLATION", "WebSocketHandler");
             sendError(wsSession, "Security check failed");
-            wsSession.close(CloseStatus.NOT_ACCEPTABLE);
+            closeAfterFlush(wsSession, CloseStatus.NOT_ACCEPTABLE);
         } catch (Exception e) {
             log.error("Error establishing connection", e);
             if (userId != null) {
@@ -128,7 +233,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             }
             metricsService.recordError("CONNECTION_ERROR", "WebSocketHandler");
             sendError(wsSession, "Connection failed: " + e.getMessage());
-            wsSession.close(CloseStatus.SERVER_ERROR);
+            closeAfterFlush(wsSession, CloseStatus.SERVER_ERROR);
         }
     }
 
@@ -137,7 +242,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         String sessionId = sessionManager.getSessionId(wsSession);
         if (sessionId == null) {
             // Fallback for legacy sessions
-            sessionId = extractSessionId(wsSession);
+            sessionId = connectionContext(wsSession).getSessionId();
             log.warn("Session not found in manager for WebSocket: {}, using fallback", wsSession.getId());
         }
 
@@ -162,8 +267,20 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                         handleHeartbeat(wsSession, sessionId);
                         return;
 
+                    case "history_page":
+                        handleHistoryPage(wsSession, sessionId, jsonPayload);
+                        return;
+
+                    case "credit":
+                        handleCredit(wsSession, sessionId, jsonPayload);
+                        return;
+
+                    case "ack":
+                        handleAck(wsSession, sessionId, jsonPayload);
+                        return;
+
                     case "ping":
-                        sendMessageSynchronized(wsSession, "{\"type\":\"pong\"}");
+                        sendMessageAsync(wsSession, "{\"type\":\"pong\"}");
                         return;
 
                     default:
@@ -172,7 +289,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             } catch (Exception e) {
                 // Not JSON or parsing failed, handle as plain text
                 if ("ping".equals(payload)) {
-                    sendMessageSynchronized(wsSession, "pong");
+                    sendMessageAsync(wsSession, "pong");
                 }
             }
 
@@ -191,6 +308,22 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             String messageId = (String) payload.get("messageId");
             Integer lastChunkIndex = (Integer) payload.get("lastChunkIndex");
 
+            // Missing fields come from the session's ack cursor, replicated across nodes
+            boolean fromCursor = false;
+            if (messageId == null || lastChunkIndex == null) {
+                AckCursorStore.Cursor cursor = ackCursors.get(sessionId);
+                if (cursor != null && (messageId == null || messageId.equals(cursor.messageId()))) {
+                    fromCursor = lastChunkIndex == null;
+                    messageId = cursor.messageId();
+                    lastChunkIndex = lastChunkIndex != null ? lastChunkIndex : cursor.index();
+                }
+            }
+            if (messageId == null) {
+                // Bare reconnect and nothing acked for this session
+                sendRecoveryStatus(wsSession, "not_found", 0);
+                return;
+            }
+
             RecoveryRequest recoveryRequest = RecoveryRequest.builder()
                     .sessionId(sessionId)
                     .messageId(messageId)
@@ -235,7 +368,12 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                     break;
 
                 case ERROR:
-                    sendError(wsSession, "Recovery failed");
+                    if (fromCursor) {
+                        // Acked message is no longer the session's stream: nothing to resume
+                        sendRecoveryStatus(wsSession, "not_found", 0);
+                    } else {
+                        sendError(wsSession, "Recovery failed");
+                    }
                     break;
             }
 
@@ -245,28 +383,46 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * Client ack: {"type":"ack","message_id":m,"index":i}
+     * Only messages recently streamed on this connection are accepted, and the
+     * index is clamped to the highest chunk queued for it, so an ack can never
+     * let the cursor (and trimming) run ahead of what the client received
+     */
+    private void handleAck(WebSocketSession wsSession, String sessionId, Map<String, Object> payload) {
+        Object messageId = payload.get("message_id");
+        if (messageId instanceof String id && payload.get("index") instanceof Number index) {
+            int queued = connectionContext(wsSession).highestQueuedChunk(id);
+            if (queued < 0) {
+                log.debug("Ignoring ack for message not streamed on this connection: wsId={}, messageId={}",
+                        wsSession.getId(), id);
+                return;
+            }
+            ackCursors.ack(sessionId, wsSession.getId(), id, Math.min(index.intValue(), queued));
+        }
+    }
+
     private void handleHeartbeat(WebSocketSession wsSession, String sessionId) {
         sessionManager.updateHeartbeat(sessionId);
-        try {
-            sendMessageSynchronized(wsSession, "{\"type\":\"heartbeat_ack\"}");
-        } catch (IOException e) {
-            log.error("Failed to send heartbeat ack", e);
-        }
+        sendMessageAsync(wsSession, "{\"type\":\"heartbeat_ack\"}");
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession wsSession, CloseStatus status) {
         String sessionId = sessionManager.getSessionId(wsSession);
         if (sessionId == null) {
-            sessionId = extractSessionId(wsSession);
+            sessionId = connectionContext(wsSession).getSessionId();
         }
 
         log.info("WebSocket closed: wsId={}, sessionId={}, status={}",
                 wsSession.getId(), sessionId, status);
 
         // Record disconnection
-        String userId = extractUserId(wsSession);
+        String userId = connectionContext(wsSession).getUserId();
         metricsService.recordWebSocketDisconnection(userId);
+        if (wsSession.getAttributes().remove(ADMITTED_ATTRIBUTE) != null) {
+            admissionController.connectionClosed();
+        }
 
         // Legacy cleanup
         ConcurrentHashMap<String, WebSocketSession> sessions = sessionMap.get(sessionId);
@@ -274,19 +430,22 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             sessions.remove(wsSession.getId());
             if (sessions.isEmpty()) {
                 sessionMap.remove(sessionId);
-                // Unsubscribe from Redis if no more connections for this session
-                // NOTE: Commented out because we're not using RedisMessageListener subscription
-                // redisMessageListener.unsubscribe(sessionId);
+                // Unsubscribe from Redis fan-out if no more connections for this session
+                redisMessageListener.unsubscribe(sessionId);
             }
         }
 
         // Enhanced cleanup
         if (sessionId != null) {
             sessionManager.unregisterSession(sessionId);
+            ackCursors.release(sessionId, wsSession.getId());
         }
         
-        // Clean up session lock
-        sessionLocks.remove(wsSession.getId());
+        // Discard anything still queued for this connection
+        OutboundMessageQueue queue = outboundQueues.remove(wsSession.getId());
+        if (queue != null) {
+            queue.dispose();
+        }
     }
 
     @Override
@@ -313,7 +472,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                     "timestamp", Instant.now().toString()
             ));
 
-            sendMessageSynchronized(wsSession, payload);
+            sendMessageAsync(wsSession, payload);
             log.debug("Sent welcome message to session: {}", sessionId);
 
         } catch (Exception e) {
@@ -322,80 +481,193 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     }
 
     /**
-     * Send chat history to a specific WebSocket session
+     * History replay on connect
+     *
+     * A client that sends last_message_id only receives the entries after it
+     * ("delta"); otherwise, or if that message is too far back, the latest
+     * page. Replayed messages are recorded on the connection so live frames
+     * for them are dropped, and messages already completed live are left out.
      */
     private void sendChatHistory(WebSocketSession wsSession, String sessionId) {
-        try {
-            List<ChatMessage> history = chatHistoryService.getHistory(sessionId);
-            if (!history.isEmpty()) {
-                String historyJson = objectMapper.writeValueAsString(Map.of(
-                    "type", "history",
-                    "messages", history
-                ));
-                sendMessageSynchronized(wsSession, historyJson);
-                log.info("Sent {} history messages to session {}", history.size(), sessionId);
+        ConnectionContext context = connectionContext(wsSession);
+        ChatHistoryService.HistoryPage page = null;
+        String mode = "latest";
+        if (context.getLastMessageId() != null) {
+            page = chatHistoryService.getPageAfter(sessionId, context.getLastMessageId(), historyMaxPageSize);
+            if (page != null) {
+                mode = "delta";
+            } else {
+                log.info("Last seen message {} not in recent history of session {}, sending latest page",
+                        context.getLastMessageId(), sessionId);
             }
-        } catch (Exception e) {
-            log.error("Error sending history to session {}: {}", sessionId, e.getMessage());
         }
+        if (page == null) {
+            page = chatHistoryService.getPage(sessionId, -1, historyInitialPageSize);
+        }
+
+        page = page.without(context.markReplayed(page.messageIds()));
+        if (page.messages().isEmpty()) {
+            return;
+        }
+        sendHistoryPage(wsSession, sessionId, page, mode);
     }
 
-    private void sendChunk(WebSocketSession wsSession, StreamChunk chunk) {
-        try {
-            log.info("=== SENDING CHUNK TO WEBSOCKET ===");
-            log.info("WebSocket Session ID: {}", wsSession.getId());
-            log.info("WebSocket isOpen: {}", wsSession.isOpen());
-            log.info("Chunk index: {}", chunk.getIndex());
-            log.info("Chunk messageId: {}", chunk.getMessageId());
-            log.info("Chunk content length: {}", chunk.getContent() != null ? chunk.getContent().length() : 0);
-
-            // Convert StreamChunk to ChatMessage format for frontend compatibility
-            String sessionId = sessionManager.getSessionId(wsSession);
-            if (sessionId == null) {
-                sessionId = extractSessionId(wsSession);
-                log.info("SessionId from URI: {}", sessionId);
-            } else {
-                log.info("SessionId from manager: {}", sessionId);
+    /**
+     * Client request for older history: {"type":"history_page","before":cursor,"limit":n}
+     */
+    private void handleHistoryPage(WebSocketSession wsSession, String sessionId, Map<String, Object> payload) {
+        Object before = payload.get("before");
+        Object limit = payload.get("limit");
+        int pageSize = limit instanceof Number n ? n.intValue() : historyInitialPageSize;
+        ChatHistoryService.HistoryPage page = chatHistoryService.getPage(sessionId,
+                before instanceof Number n ? n.longValue() : -1,
+                Math.max(1, Math.min(pageSize, historyMaxPageSize)));
+        sendHistoryPage(wsSession, sessionId, page, "older");
+    }
+
+    /**
+     * Send one history page as {"type":"history","mode":m,"cursor":c,"has_more":b,"messages":[...]}
+     * mode: "latest" (replaces the client's cursor), "older" (requested page) or "delta" (entries it missed)
+     *
+     * Entries are embedded exactly as stored in Redis (no deserialize/serialize
+     * round-trip). Text frames larger than the fragment size are written as
+     * consecutive partial frames split at entry boundaries.
+     */
+    private void sendHistoryPage(WebSocketSession wsSession, String sessionId,
+                                 ChatHistoryService.HistoryPage page, String mode) {
+        if (!wsSession.isOpen()) {
+            return;
+        }
+
+        boolean fragment = !connectionContext(wsSession).isBinaryProtocol();
+        List<String> fragments = new ArrayList<>();
+        StringBuilder current = new StringBuilder(Math.min(historyFragmentSize, 8192))
+                .append("{\"type\":\"history\",\"mode\":\"").append(mode)
+                .append("\",\"cursor\":").append(page.cursor())
+                .append(",\"has_more\":").append(page.hasMore())
+                .append(",\"messages\":[");
+        for (int i = 0; i < page.messages().size(); i++) {
+            if (i > 0) {
+                current.append(',');
+            }
+            current.append(page.messages().get(i));
+            if (fragment && current.length() >= historyFragmentSize) {
+                fragments.add(current.toString());
+                current.setLength(0);
             }
-            String userId = extractUserId(wsSession);
-            log.info("UserId: {}", userId);
+        }
+        fragments.add(current.append("]}").toString());
 
-            ChatMessage chatMessage = ChatMessage.builder()
-                    .messageId(chunk.getMessageId())
-                    .sessionId(sessionId)
-                    .userId(userId)
-                    .role("assistant")
-                    .content(chunk.getContent())
-                    .chunk(chunk.getContent())
-                    .timestamp(chunk.getTimestamp().toEpochMilli())
-                    .isComplete(false)
-                    .build();
+        if (fragments.size() == 1) {
+            sendMessageAsync(wsSession, fragments.get(0));
+        } else {
+            outboundQueue(wsSession).enqueueFragments(fragments);
+        }
+        log.info("Sent history page to session {}: mode={}, messages={}, cursor={}, hasMore={}, fragments={}",
+                sessionId, mode, page.messages().size(), page.cursor(), page.hasMore(), fragments.size());
+    }
 
-            String payload = objectMapper.writeValueAsString(Map.of(
-                    "type", "message",
-                    "data", chatMessage
-            ));
+    private void sendChunk(WebSocketSession wsSession, StreamChunk chunk) {
+        ConnectionContext context = connectionContext(wsSession);
+        sendChunk(wsSession, ChunkEnvelope.of(objectMapper, context.getSessionId(), context.getUserId(), chunk));
+    }
+
+    /**
+     * Send one chunk on a connection, within its credit window if the client uses one
+     */
+    private void sendChunk(WebSocketSession wsSession, ChunkEnvelope envelope) {
+        ConnectionContext context = connectionContext(wsSession);
+        StreamChunk chunk = envelope.getChunk();
+        if (!context.acceptLive(chunk.getMessageId(), false)) {
+            return;
+        }
+        // Duplicate (callback and self fan-out on the owning node): spend no credit on it
+        if (chunk.getIndex() <= context.highestQueuedChunk(chunk.getMessageId())) {
+            return;
+        }
+        CreditWindow window = creditWindow(wsSession);
+        if (window != null && !window.tryAcquire(envelope) && window.hold(envelope)) {
+            if (window.startResume()) {
+                submitResume(wsSession, envelope.getSessionId(), window);
+            }
+            return;
+        }
+        queueChunk(wsSession, envelope);
+    }
 
-            log.info("Payload size: {} bytes", payload.length());
-            log.info("Payload (first 200 chars): {}", payload.substring(0, Math.min(200, payload.length())));
+    /**
+     * Resume a chunk the server skipped from the cache, through the connection's credit window
+     * Connections without flow control get a window with unlimited credit to track the spill.
+     */
+    private void spillChunk(WebSocketSession wsSession, ChunkEnvelope envelope) {
+        if (!connectionContext(wsSession).acceptLive(envelope.getChunk().getMessageId(), false)) {
+            return;
+        }
+        CreditWindow window = (CreditWindow) wsSession.getAttributes()
+                .computeIfAbsent(CREDIT_WINDOW_ATTRIBUTE, k -> newCreditWindow(wsSession));
+        window.spill(envelope);
+        if (window.startResume()) {
+            submitResume(wsSession, envelope.getSessionId(), window);
+        }
+    }
 
-            sendMessageSynchronized(wsSession, payload);
+    /**
+     * Queue one chunk on a connection, reusing the envelope's cached text frame
+     */
+    private void queueChunk(WebSocketSession wsSession, ChunkEnvelope envelope) {
+        StreamChunk chunk = envelope.getChunk();
+        ConnectionContext context = connectionContext(wsSession);
+        if (context.isBinaryProtocol()) {
+            if (sendBinaryChunk(wsSession, chunk.getMessageId(), chunk.getIndex(), chunk.getContent(), chunk.isDelta())) {
+                context.recordQueuedChunk(chunk.getMessageId(), chunk.getIndex());
+            }
+            streamTracer.record(envelope.getSessionId(), StreamTracer.Stage.SOCKET_QUEUED,
+                    chunk.getMessageId(), chunk.getIndex(), 0, wsSession.getId());
+            return;
+        }
 
-            log.info("=== MESSAGE SENT TO WEBSOCKET SUCCESSFULLY ===");
+        // Claimed atomically: the callback and the fan-out may race past the check in sendChunk
+        if (!context.claimChunk(chunk.getMessageId(), chunk.getIndex())) {
+            CreditWindow window = creditWindow(wsSession);
+            if (window != null) {
+                window.refund(1);
+            }
+            return;
+        }
 
+        String payload;
+        try {
+            payload = envelope.frameJson();
         } catch (IOException e) {
-            log.error("=== FAILED TO SEND CHUNK TO WEBSOCKET ===", e);
-            log.error("WebSocket session: {}", wsSession.getId());
+            log.error("Failed to serialize chunk frame: messageId={}, index={}",
+                    chunk.getMessageId(), chunk.getIndex(), e);
+            return;
         }
+
+        // Accumulated chunks of one message supersede each other; delta chunks must all be
+        // sent, so a delta frame that does not fit closes the connection for recovery instead
+        OutboundMessageQueue queue = outboundQueue(wsSession);
+        if (chunk.isDelta()) {
+            queue.enqueueLossless(payload, chunk.getMessageId());
+        } else {
+            queue.enqueue(payload, chunk.getMessageId(), chunk.getMessageId());
+        }
+        streamTracer.record(envelope.getSessionId(), StreamTracer.Stage.SOCKET_QUEUED,
+                chunk.getMessageId(), chunk.getIndex(), payload.length(), wsSession.getId());
     }
 
     private void sendCompleteMessage(WebSocketSession wsSession, Message message) {
         try {
-            // Convert Message to ChatMessage format for frontend compatibility
-            String sessionId = sessionManager.getSessionId(wsSession);
-            if (sessionId == null) {
-                sessionId = extractSessionId(wsSession);
+            ConnectionContext context = connectionContext(wsSession);
+            completeCredit(wsSession, message.getId());
+            if (!context.acceptLive(message.getId(), true)) {
+                log.debug("Complete message {} already replayed from history", message.getId());
+                releaseBinaryHandle(wsSession, message.getId());
+                return;
             }
+
+            // Convert Message to ChatMessage format for frontend compatibility
+            String sessionId = context.getSessionId();
             
             ChatMessage chatMessage = ChatMessage.builder()
                     .messageId(message.getId())
@@ -415,7 +687,8 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             log.info("Sending complete message to session {}: messageId={}", 
                     wsSession.getId(), message.getId());
             
-            sendMessageSynchronized(wsSession, payload);
+            sendMessageAsync(wsSession, payload);
+            releaseBinaryHandle(wsSession, message.getId());
 
         } catch (IOException e) {
             log.error("Failed to send complete message", e);
@@ -430,13 +703,38 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                     "chunksRecovered", chunksRecovered
             ));
 
-            sendMessageSynchronized(wsSession, payload);
+            sendMessageAsync(wsSession, payload);
 
         } catch (IOException e) {
             log.error("Failed to send recovery status", e);
         }
     }
 
+    /**
+     * Refuse a connection that can't be taken now: error with a retry-after hint, then 1013 (try again later)
+     */
+    private void rejectConnection(WebSocketSession wsSession, String sessionId, String userId,
+                                  String code, String reason, long retryAfterMs) {
+        log.warn("Connection refused: sessionId={}, code={}, reason={}, retryAfter={}ms",
+                sessionId, code, reason, retryAfterMs);
+        if (userId != null) {
+            metricsService.recordWebSocketConnection(userId, false);
+        }
+        try {
+            String payload = objectMapper.writeValueAsString(Map.of(
+                    "type", "error",
+                    "error", reason,
+                    "code", code,
+                    "retry_after_ms", retryAfterMs,
+                    "timestamp", Instant.now().toString()
+            ));
+            sendMessageAsync(wsSession, payload);
+        } catch (IOException e) {
+            log.error("Failed to send rejection message", e);
+        }
+        closeAfterFlush(wsSession, CloseStatus.SERVICE_OVERLOAD);
+    }
+
     private void sendError(WebSocketSession wsSession, String error) {
         try {
             String payload = objectMapper.writeValueAsString(Map.of(
@@ -445,33 +743,177 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                     "timestamp", Instant.now().toString()
             ));
 
-            sendMessageSynchronized(wsSession, payload);
+            sendMessageAsync(wsSession, payload);
         } catch (IOException e) {
             log.error("Failed to send error message", e);
         }
     }
     
     /**
-     * Synchronized message sending to prevent TEXT_PARTIAL_WRITING error
-     * This ensures only one thread can write to a WebSocket session at a time
+     * Queue a message on the connection's outbound queue
+     * Never blocks on socket I/O; frames are written in order by the writer pool
+     */
+    private void sendMessageAsync(WebSocketSession wsSession, String payload) {
+        sendMessageAsync(wsSession, payload, null, null);
+    }
+
+    /**
+     * Queue a message; frames with the same coalesceKey may replace each other for slow consumers,
+     * consecutive frames with the same batchKey may be merged into one batch frame
      */
-    private void sendMessageSynchronized(WebSocketSession wsSession, String payload) throws IOException {
+    private void sendMessageAsync(WebSocketSession wsSession, String payload, String coalesceKey, String batchKey) {
         if (wsSession == null || !wsSession.isOpen()) {
             log.warn("Cannot send message: WebSocket session is null or closed");
             return;
         }
-        
-        // Get or create lock for this WebSocket session
-        Object lock = sessionLocks.computeIfAbsent(wsSession.getId(), k -> new Object());
-        
-        synchronized (lock) {
-            try {
-                wsSession.sendMessage(new TextMessage(payload));
-            } catch (IOException e) {
-                log.error("Failed to send message to WebSocket {}: {}", wsSession.getId(), e.getMessage());
-                throw e;
+        if (connectionContext(wsSession).isBinaryProtocol()) {
+            outboundQueue(wsSession).enqueueBinary(BinaryFrameEncoder.jsonFrame(payload));
+            return;
+        }
+        outboundQueue(wsSession).enqueue(payload, coalesceKey, batchKey);
+    }
+
+    /**
+     * Queue a chunk as compact binary frames (v3 connections)
+     * Encoding and enqueueing happen under the encoder's monitor so handle
+     * declarations always precede their chunks on the wire
+     */
+    private boolean sendBinaryChunk(WebSocketSession wsSession, String messageId, int index,
+                                    String content, boolean delta) {
+        if (!wsSession.isOpen()) {
+            return false;
+        }
+        BinaryFrameEncoder encoder = binaryEncoder(wsSession);
+        OutboundMessageQueue queue = outboundQueue(wsSession);
+        synchronized (encoder) {
+            for (byte[] frame : encoder.encodeChunk(messageId, index, content, delta)) {
+                // Delta text cannot be repaired by a later RESET, so it is never dropped
+                if (!queue.enqueueBinary(frame, delta)) {
+                    encoder.reset(messageId, index);
+                    return false;
+                }
             }
         }
+        return true;
+    }
+
+    private void releaseBinaryHandle(WebSocketSession wsSession, String messageId) {
+        if (!connectionContext(wsSession).isBinaryProtocol()) {
+            return;
+        }
+        BinaryFrameEncoder encoder = binaryEncoder(wsSession);
+        synchronized (encoder) {
+            encoder.release(messageId);
+        }
+    }
+
+    /**
+     * Client credit: {"type":"credit","chunks":n,"bytes":b}, either field optional
+     * The first grant enables flow control for the connection. Held chunks that
+     * now fit are queued; spilled messages are resumed from the stream cache on
+     * the session's lane, after every chunk already delivered there.
+     */
+    private void handleCredit(WebSocketSession wsSession, String sessionId, Map<String, Object> payload) {
+        Object chunks = payload.get("chunks");
+        Object bytes = payload.get("bytes");
+        CreditWindow window = (CreditWindow) wsSession.getAttributes()
+                .computeIfAbsent(CREDIT_WINDOW_ATTRIBUTE, k -> newCreditWindow(wsSession));
+        window.grant(chunks instanceof Number n ? n.longValue() : -1,
+                bytes instanceof Number n ? n.longValue() : -1);
+
+        window.release().forEach(envelope -> queueChunk(wsSession, envelope));
+        if (window.startResume()) {
+            submitResume(wsSession, sessionId, window);
+        }
+    }
+
+    /**
+     * Run a claimed resume on the session's lane; a full lane leaves it for the next credit
+     */
+    private void submitResume(WebSocketSession wsSession, String sessionId, CreditWindow window) {
+        if (!sessionLanes.execute(sessionId, () -> resumeSpilled(wsSession, window))) {
+            window.endResume();
+        }
+    }
+
+    /**
+     * Read spilled chunk ranges back from the stream cache and queue what the credit allows
+     */
+    private void resumeSpilled(WebSocketSession wsSession, CreditWindow window) {
+        ConnectionContext context = connectionContext(wsSession);
+        try {
+            // Repeat while chunks arrive from other threads (fan-out) during the reads
+            boolean progress = true;
+            while (progress && wsSession.isOpen()) {
+                progress = false;
+                for (CreditWindow.Spill spill : window.spills()) {
+                    List<StreamChunk> chunks = streamCache.getChunks(spill.messageId(),
+                            spill.fromIndex(), spill.toIndex() + 1);
+                    List<ChunkEnvelope> cached = new ArrayList<>(chunks.size());
+                    for (StreamChunk chunk : chunks) {
+                        cached.add(ChunkEnvelope.of(objectMapper, context.getSessionId(), context.getUserId(), chunk));
+                    }
+                    List<ChunkEnvelope> resumed = window.resume(spill.messageId(), cached);
+                    resumed.forEach(envelope -> queueChunk(wsSession, envelope));
+                    if (!resumed.isEmpty()) {
+                        progress = true;
+                        metricsService.recordDistribution("websocket.flow.resumed_chunks", resumed.size());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error resuming spilled chunks: wsId={}", wsSession.getId(), e);
+        } finally {
+            window.endResume();
+        }
+    }
+
+    private CreditWindow newCreditWindow(WebSocketSession wsSession) {
+        CreditWindow created = new CreditWindow(flowMaxHeldBytes);
+        outboundQueue(wsSession).onChunksDiscarded(created::refund);
+        return created;
+    }
+
+    private CreditWindow creditWindow(WebSocketSession wsSession) {
+        return (CreditWindow) wsSession.getAttributes().get(CREDIT_WINDOW_ATTRIBUTE);
+    }
+
+    private void completeCredit(WebSocketSession wsSession, String messageId) {
+        CreditWindow window = creditWindow(wsSession);
+        if (window != null) {
+            window.complete(messageId);
+        }
+    }
+
+    private BinaryFrameEncoder binaryEncoder(WebSocketSession wsSession) {
+        return (BinaryFrameEncoder) wsSession.getAttributes()
+                .computeIfAbsent(BINARY_ENCODER_ATTRIBUTE, k -> new BinaryFrameEncoder());
+    }
+
+    private void closeAfterFlush(WebSocketSession wsSession, CloseStatus status) {
+        outboundQueue(wsSession).closeAfterFlush(status);
+    }
+
+    private OutboundMessageQueue outboundQueue(WebSocketSession wsSession) {
+        return outboundQueues.computeIfAbsent(wsSession.getId(), id -> new OutboundMessageQueue(
+                wsSession,
+                outboundWriter,
+                outboundBufferSizeLimit,
+                outboundSendTimeLimitMs,
+                OutboundMessageQueue.OverflowPolicy.parse(outboundOverflowPolicy),
+                metricsService,
+                coalesceTimer,
+                coalesceWindowMs,
+                coalesceMaxBytes,
+                compressionStats(wsSession)));
+    }
+
+    private CompressionStats compressionStats(WebSocketSession wsSession) {
+        boolean deflate = compressionStatsSampleRate > 0 && wsSession.getExtensions().stream()
+                .anyMatch(extension -> "permessage-deflate".equalsIgnoreCase(extension.getName()));
+        return deflate
+                ? new CompressionStats(wsSession.getId(), compressionStatsSampleRate, serverContextTakeover, metricsService)
+                : null;
     }
 
     /**
@@ -500,17 +942,24 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         log.info("Broadcasting to {} WebSocket sessions for chat session {}", 
                 sessions.size(), sessionId);
         
+        boolean isChunk = !Boolean.TRUE.equals(message.getIsComplete());
+        String coalesceKey = isChunk && message.getDelta() == null ? message.getMessageId() : null;
+        String batchKey = isChunk ? message.getMessageId() : null;
         sessions.values().forEach(session -> {
-            try {
-                if (session.isOpen()) {
-                    log.info("Sending message to WebSocket session: {}", session.getId());
-                    sendMessageSynchronized(session, messageJson);
-                } else {
-                    log.warn("WebSocket session {} is not open", session.getId());
+            if (session.isOpen()) {
+                if (!isChunk) {
+                    completeCredit(session, message.getMessageId());
                 }
-            } catch (IOException e) {
-                log.error("Error sending message to WebSocket session {}: {}",
-                         session.getId(), e.getMessage());
+                if (!connectionContext(session).acceptLive(message.getMessageId(), !isChunk)) {
+                    return;
+                }
+                log.debug("Sending message to WebSocket session: {}", session.getId());
+                sendMessageAsync(session, messageJson, coalesceKey, batchKey);
+                if (!isChunk) {
+                    releaseBinaryHandle(session, message.getMessageId());
+                }
+            } else {
+                log.warn("WebSocket session {} is not open", session.getId());
             }
         });
 
@@ -518,6 +967,40 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                  sessions.size(), sessionId);
     }
 
+    /**
+     * Broadcast a fan-out chunk to all WebSocket sessions of a chat session
+     * The text frame is encoded once and shared by every attached socket
+     */
+    public void broadcastChunk(String sessionId, ChunkEnvelope envelope) {
+        ConcurrentHashMap<String, WebSocketSession> sessions = sessionMap.get(sessionId);
+        if (sessions == null || sessions.isEmpty()) {
+            log.debug("No active WebSocket sessions for chat session: {}", sessionId);
+            return;
+        }
+        sessions.values().forEach(session -> {
+            if (session.isOpen()) {
+                sendChunk(session, envelope);
+            }
+        });
+    }
+
+    /**
+     * Close the session's local connections once their queued frames are written
+     * Used when fan-out messages were lost: the clients reconnect and resume from their ack cursor
+     */
+    public void resyncSession(String sessionId) {
+        ConcurrentHashMap<String, WebSocketSession> sessions = sessionMap.get(sessionId);
+        if (sessions == null || sessions.isEmpty()) {
+            return;
+        }
+        metricsService.incrementCounter("websocket.resync");
+        sessions.values().forEach(ws -> {
+            if (ws.isOpen()) {
+                closeAfterFlush(ws, CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        });
+    }
+
     public void broadcastErrorToSession(String sessionId, String error) {
         ConcurrentHashMap<String, WebSocketSession> sessions = sessionMap.get(sessionId);
         if (sessions == null || sessions.isEmpty()) {
@@ -534,61 +1017,57 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             return;
         }
         sessions.values().forEach(ws -> {
-            try {
-                if (ws.isOpen()) {
-                    sendMessageSynchronized(ws, payload);
-                }
-            } catch (IOException ex) {
-                log.error("Failed to send error to WS {}", ws.getId(), ex);
+            if (ws.isOpen()) {
+                sendMessageAsync(ws, payload);
             }
         });
     }
 
     /**
-     * Extract session ID from WebSocket session URI
-     * Expected format: /ws/chat?session_id=xxx
+     * Connection identity, parsed from the URI once and cached in the session attributes
+     * Expected format: /ws/chat?session_id=xxx&user_id=yyy&token=zzz[&last_message_id=mmm]
      */
-    private String extractSessionId(WebSocketSession session) {
-        String query = session.getUri().getQuery();
+    private ConnectionContext connectionContext(WebSocketSession wsSession) {
+        Object cached = wsSession.getAttributes().get(ConnectionContext.ATTRIBUTE);
+        if (cached instanceof ConnectionContext context) {
+            return context;
+        }
+
+        String sessionId = "default";
+        String userId = "default_user";
+        String token = null;
+        String lastMessageId = null;
+
+        String query = wsSession.getUri() != null ? wsSession.getUri().getQuery() : null;
         if (query != null) {
-            String[] params = query.split("&");
-            for (String param : params) {
+            for (String param : query.split("&")) {
                 if (param.startsWith("session_id=")) {
-                    return param.substring("session_id=".length());
+                    sessionId = param.substring("session_id=".length());
+                } else if (param.startsWith("user_id=")) {
+                    userId = param.substring("user_id=".length());
+                } else if (param.startsWith("token=")) {
+                    token = param.substring("token=".length());
+                } else if (param.startsWith("last_message_id=")) {
+                    lastMessageId = URLDecoder.decode(param.substring("last_message_id=".length()),
+                            StandardCharsets.UTF_8);
                 }
             }
         }
-        return "default";
-    }
-
-    private String extractUserId(WebSocketSession session) {
-        // Extract from query params or use default
-        String query = session.getUri().getQuery();
-        if (query != null && query.contains("user_id=")) {
-            String[] params = query.split("&");
-            for (String param : params) {
-                if (param.startsWith("user_id=")) {
-                    return param.substring("user_id=".length());
-                }
-            }
+        if (token == null) {
+            // For development/testing, allow without token
+            log.warn("No token provided, using development mode");
+            token = "dev-token";
         }
-        return "default_user";
-    }
 
-    private String extractToken(WebSocketSession session) {
-        // Extract from query params
-        String query = session.getUri().getQuery();
-        if (query != null && query.contains("token=")) {
-            String[] params = query.split("&");
-            for (String param : params) {
-                if (param.startsWith("token=")) {
-                    return param.substring("token=".length());
-                }
-            }
-        }
-        // For development/testing, allow without token
-        log.warn("No token provided, using development mode");
-        return "dev-token";
+        ConnectionContext context = ConnectionContext.builder()
+                .sessionId(sessionId)
+                .userId(userId)
+                .token(token)
+                .binaryProtocol(wsSession.getUri() != null && wsSession.getUri().getPath().endsWith("/v3"))
+                .lastMessageId(lastMessageId == null || lastMessageId.isEmpty() ? null : lastMessageId)
+                .build();
+        wsSession.getAttributes().put(ConnectionContext.ATTRIBUTE, context);
+        return context;
     }
 
     /**
@@ -604,14 +1083,17 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
 
         @Override
         public void onChunk(StreamChunk chunk) {
-            log.info("=== WEBSOCKET CALLBACK onChunk INVOKED ===");
-            log.info("WebSocket Session ID: {}", wsSession.getId());
-            log.info("WebSocket isOpen: {}", wsSession.isOpen());
-            log.info("Chunk messageId: {}, index: {}, contentLength: {}",
-                    chunk.getMessageId(), chunk.getIndex(),
-                    chunk.getContent() != null ? chunk.getContent().length() : 0);
             sendChunk(wsSession, chunk);
-            log.info("=== sendChunk COMPLETED ===");
+        }
+
+        @Override
+        public void onChunk(ChunkEnvelope envelope) {
+            sendChunk(wsSession, envelope);
+        }
+
+        @Override
+        public void onChunkSkipped(ChunkEnvelope envelope) {
+            spillChunk(wsSession, envelope);
         }
 
         @Override
@@ -0,0 +1,98 @@
+package com.demo.websocket.handler;
+
+import com.demo.websocket.service.MetricsService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.Deflater;
+
+/**
+ * Per-connection permessage-deflate estimate
+ *
+ * The container compresses frames internally, so ratio and CPU cost are
+ * estimated by deflating every Nth outbound payload with the same
+ * context-takeover setting and scaling the sample to all bytes sent.
+ * Reported once when the connection closes.
+ */
+@Slf4j
+final class CompressionStats {
+
+    private final String wsId;
+    private final int sampleRate;
+    private final boolean contextTakeover;
+    private final MetricsService metricsService;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] buffer = new byte[8192];
+
+    private boolean ended;
+    private long frames;
+    private long totalChars;
+    private long sampledChars;
+    private long sampledBytes;
+    private long sampledCompressedBytes;
+    private long sampledNanos;
+
+    CompressionStats(String wsId, int sampleRate, boolean contextTakeover, MetricsService metricsService) {
+        this.wsId = wsId;
+        this.sampleRate = sampleRate;
+        this.contextTakeover = contextTakeover;
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Record an outbound payload
+     */
+    synchronized void record(String payload) {
+        if (ended) {
+            return;
+        }
+        totalChars += payload.length();
+        if (frames++ % sampleRate != 0) {
+            return;
+        }
+
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        long start = System.nanoTime();
+        if (!contextTakeover) {
+            deflater.reset();
+        }
+        deflater.setInput(bytes);
+        long before = deflater.getBytesWritten();
+        int n;
+        do {
+            n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        } while (n == buffer.length);
+        sampledCompressedBytes += deflater.getBytesWritten() - before;
+        sampledNanos += System.nanoTime() - start;
+        sampledBytes += bytes.length;
+        sampledChars += payload.length();
+    }
+
+    /**
+     * Log and record the estimate, then release the deflater
+     */
+    synchronized void report() {
+        try {
+            if (sampledBytes == 0) {
+                return;
+            }
+            // Scale the sample to all frames sent
+            double scale = (double) totalChars / sampledChars;
+            double ratio = (double) sampledCompressedBytes / sampledBytes;
+            long totalBytes = Math.round(sampledBytes * scale);
+            long estimatedCompressed = Math.round(totalBytes * ratio);
+            long estimatedNanos = Math.round(sampledNanos * scale);
+
+            metricsService.recordDistribution("websocket.deflate.ratio_percent", Math.round(ratio * 100));
+            metricsService.recordDistribution("websocket.deflate.bytes_saved", totalBytes - estimatedCompressed);
+            metricsService.recordTimer("websocket.deflate.cpu", Duration.ofNanos(estimatedNanos));
+
+            log.info("permessage-deflate estimate: wsId={}, frames={}, bytes={}, compressed~{} ({}%), cpu~{}us",
+                    wsId, frames, totalBytes, estimatedCompressed, Math.round(ratio * 100), estimatedNanos / 1000);
+        } finally {
+            ended = true;
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.demo.websocket.handler;
+
+import com.demo.websocket.domain.StreamChunk;
+import com.demo.websocket.infrastructure.ChunkEnvelope;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-connection credit window for stream chunks
+ *
+ * A client opts in by granting credit ({"type":"credit","chunks":n,"bytes":b});
+ * each chunk handed to the outbound queue consumes one chunk and its content
+ * length in bytes. Out of credit, chunks are held instead of queued:
+ * - accumulated chunks: only the latest one per message (it supersedes the rest)
+ * - delta chunks: in order, up to the held-bytes limit
+ *
+ * Past that limit the message is spilled: its held chunks are dropped and
+ * later ones ignored, since every chunk is already in the stream cache. When
+ * credit returns the handler reads the spilled range back from the cache.
+ * Chunks the server skipped under its own backlog are spilled the same way.
+ * A complete message supersedes everything held or spilled for it.
+ *
+ * Nothing here blocks; callers hold the monitor only for bookkeeping.
+ */
+final class CreditWindow {
+
+    /** Chunk range of a spilled message still to be resumed from the cache */
+    record Spill(String messageId, int fromIndex, int toIndex) {
+    }
+
+    private final int maxHeldBytes;
+    // Unlimited until the client's first grant (a window may exist only to track spills)
+    private boolean granted;
+    private long chunkCredit = Long.MAX_VALUE;
+    private long byteCredit = Long.MAX_VALUE;
+    private final Map<String, List<ChunkEnvelope>> held = new LinkedHashMap<>();
+    private int heldBytes;
+    private final Map<String, Spill> spilled = new LinkedHashMap<>();
+    private boolean resuming;
+
+    CreditWindow(int maxHeldBytes) {
+        this.maxHeldBytes = maxHeldBytes;
+    }
+
+    /**
+     * Add credit; a missing dimension (negative) leaves that one unlimited
+     */
+    synchronized void grant(long chunks, long bytes) {
+        if (!granted) {
+            granted = true;
+            chunkCredit = 0;
+            byteCredit = 0;
+        }
+        chunkCredit = chunks < 0 ? Long.MAX_VALUE : saturatedAdd(chunkCredit, chunks);
+        byteCredit = bytes < 0 ? Long.MAX_VALUE : saturatedAdd(byteCredit, bytes);
+    }
+
+    /**
+     * Return credit of chunks taken but never delivered (discarded by the outbound queue)
+     */
+    synchronized void refund(int chunks) {
+        if (chunkCredit != Long.MAX_VALUE) {
+            chunkCredit = saturatedAdd(chunkCredit, chunks);
+        }
+    }
+
+    /**
+     * Take credit for a chunk that can be queued right away
+     * False if it must be held: out of credit, or earlier chunks of its message are waiting
+     */
+    synchronized boolean tryAcquire(ChunkEnvelope envelope) {
+        String messageId = envelope.getChunk().getMessageId();
+        if (held.containsKey(messageId) || spilled.containsKey(messageId)) {
+            return false;
+        }
+        return consume(size(envelope));
+    }
+
+    /**
+     * Hold a chunk that did not get credit
+     * Returns false if it can be queued after all: an accumulated chunk ends its
+     * message's spill when there is credit, since it carries the spilled content
+     */
+    synchronized boolean hold(ChunkEnvelope envelope) {
+        StreamChunk chunk = envelope.getChunk();
+        String messageId = chunk.getMessageId();
+        Spill spill = spilled.get(messageId);
+        if (spill != null) {
+            if (!chunk.isDelta() && consume(size(envelope))) {
+                spilled.remove(messageId);
+                return false;
+            }
+            spilled.put(messageId, new Spill(messageId, spill.fromIndex(), chunk.getIndex()));
+            return true;
+        }
+
+        List<ChunkEnvelope> chunks = held.computeIfAbsent(messageId, id -> new ArrayList<>());
+        if (!chunk.isDelta()) {
+            // Accumulated content: the newest chunk carries everything before it
+            for (ChunkEnvelope superseded : chunks) {
+                heldBytes -= size(superseded);
+            }
+            chunks.clear();
+        }
+        chunks.add(envelope);
+        heldBytes += size(envelope);
+
+        if (heldBytes > maxHeldBytes) {
+            int fromIndex = chunks.get(0).getChunk().getIndex();
+            for (ChunkEnvelope dropped : chunks) {
+                heldBytes -= size(dropped);
+            }
+            held.remove(messageId);
+            spilled.put(messageId, new Spill(messageId, fromIndex, chunk.getIndex()));
+        }
+        return true;
+    }
+
+    /**
+     * Spill a chunk that was cached but never offered live (server-side backlog)
+     * Chunks held for its message are folded into the spill, which is resumed from the cache.
+     */
+    synchronized void spill(ChunkEnvelope envelope) {
+        StreamChunk chunk = envelope.getChunk();
+        String messageId = chunk.getMessageId();
+        Spill spill = spilled.get(messageId);
+        int fromIndex = spill != null ? spill.fromIndex() : chunk.getIndex();
+
+        List<ChunkEnvelope> chunks = held.remove(messageId);
+        if (chunks != null) {
+            for (ChunkEnvelope dropped : chunks) {
+                heldBytes -= size(dropped);
+                fromIndex = Math.min(fromIndex, dropped.getChunk().getIndex());
+            }
+        }
+        int toIndex = spill != null ? Math.max(spill.toIndex(), chunk.getIndex()) : chunk.getIndex();
+        spilled.put(messageId, new Spill(messageId, fromIndex, toIndex));
+    }
+
+    /**
+     * Held chunks that fit the current credit, in order, with their credit taken
+     */
+    synchronized List<ChunkEnvelope> release() {
+        List<ChunkEnvelope> released = new ArrayList<>();
+        Iterator<List<ChunkEnvelope>> messages = held.values().iterator();
+        while (messages.hasNext()) {
+            List<ChunkEnvelope> chunks = messages.next();
+            while (!chunks.isEmpty() && consume(size(chunks.get(0)))) {
+                ChunkEnvelope envelope = chunks.remove(0);
+                heldBytes -= size(envelope);
+                released.add(envelope);
+            }
+            if (!chunks.isEmpty()) {
+                break;
+            }
+            messages.remove();
+        }
+        return released;
+    }
+
+    /**
+     * Claim the resume of spilled messages; false if none, no credit or already running
+     * The claimer must call {@link #endResume()}
+     */
+    synchronized boolean startResume() {
+        if (resuming || spilled.isEmpty() || chunkCredit <= 0 || byteCredit <= 0) {
+            return false;
+        }
+        resuming = true;
+        return true;
+    }
+
+    synchronized void endResume() {
+        resuming = false;
+    }
+
+    /**
+     * Spilled ranges to read back from the cache, if there is credit to send them
+     */
+    synchronized List<Spill> spills() {
+        return chunkCredit > 0 && byteCredit > 0 ? new ArrayList<>(spilled.values()) : List.of();
+    }
+
+    /**
+     * Chunks read back from the cache for a spill that can be sent now, with their credit taken
+     * Accumulated chunks resume with the latest one only; the spill is done once caught up.
+     */
+    synchronized List<ChunkEnvelope> resume(String messageId, List<ChunkEnvelope> cached) {
+        Spill spill = spilled.get(messageId);
+        if (spill == null || cached.isEmpty()) {
+            return List.of();
+        }
+
+        List<ChunkEnvelope> resumed = new ArrayList<>();
+        int next = spill.fromIndex();
+        ChunkEnvelope last = cached.get(cached.size() - 1);
+        if (!last.getChunk().isDelta()) {
+            if (last.getChunk().getIndex() >= next && consume(size(last))) {
+                resumed.add(last);
+                next = last.getChunk().getIndex() + 1;
+            }
+        } else {
+            for (ChunkEnvelope envelope : cached) {
+                int index = envelope.getChunk().getIndex();
+                if (index < next) {
+                    continue;
+                }
+                if (index > next || !consume(size(envelope))) {
+                    break;
+                }
+                resumed.add(envelope);
+                next = index + 1;
+            }
+        }
+
+        if (next > spill.toIndex()) {
+            spilled.remove(messageId);
+        } else {
+            spilled.put(messageId, new Spill(messageId, next, spill.toIndex()));
+        }
+        return resumed;
+    }
+
+    /**
+     * The complete message was sent: drop everything held or spilled for it
+     */
+    synchronized void complete(String messageId) {
+        List<ChunkEnvelope> chunks = held.remove(messageId);
+        if (chunks != null) {
+            for (ChunkEnvelope envelope : chunks) {
+                heldBytes -= size(envelope);
+            }
+        }
+        spilled.remove(messageId);
+    }
+
+    private boolean consume(int bytes) {
+        // A chunk larger than the remaining byte credit still goes out, so the window can't stall
+        if (chunkCredit <= 0 || byteCredit <= 0) {
+            return false;
+        }
+        if (chunkCredit != Long.MAX_VALUE) {
+            chunkCredit--;
+        }
+        if (byteCredit != Long.MAX_VALUE) {
+            byteCredit -= bytes;
+        }
+        return true;
+    }
+
+    private static int size(ChunkEnvelope envelope) {
+        String content = envelope.getChunk().getContent();
+        return content != null ? content.length() : 0;
+    }
+
+    private static long saturatedAdd(long current, long delta) {
+        long sum = current + delta;
+        return sum < current ? Long.MAX_VALUE : sum;
+    }
+}
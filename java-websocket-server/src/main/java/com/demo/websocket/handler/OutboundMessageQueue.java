@@ -0,0 +1,401 @@
+package com.demo.websocket.handler;
+
+import com.demo.websocket.service.MetricsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Per-connection outbound queue
+ *
+ * Callers (Redis listener, orchestrator lanes) only enqueue; frames are
+ * written by a shared writer pool, one drain task per connection at a time,
+ * so no caller ever blocks on socket I/O and frames keep their order.
+ *
+ * A connection is a slow consumer when its buffered bytes exceed the buffer
+ * limit or its current send has run longer than the send-time limit. The
+ * overflow policy then decides what happens to the new frame:
+ * - DROP: drop it
+ * - COALESCE: replace queued frames with the same key (superseded chunks
+ *   of the same message), dropping the frame if that is not enough; on a
+ *   slow send the frame is only kept if it replaced at least one frame
+ * - DISCONNECT: discard the queue and close the connection
+ * Lossless frames (delta chunks, which later chunks build on) are never
+ * dropped: if one does not fit, the connection is closed as with DISCONNECT
+ * and the client resumes from its ack cursor on reconnect.
+ *
+ * Optional frame coalescing: consecutive chunk frames of the same message
+ * are merged into one {"type":"batch","frames":[...]} frame, up to the
+ * window's byte limit. The window is adaptive: a chunk arriving on a socket
+ * that has been idle for a full window is sent immediately (no added
+ * time-to-first-token); only back-to-back chunks wait for the window.
+ *
+ * Large messages may be queued as a group of fragments (partial frames);
+ * a group is admitted or dropped as a whole and written without interleaving.
+ * Groups are requested replies (history pages) larger than a frame, so they
+ * are exempt from the buffer limit; only a slow send applies the policy.
+ *
+ * Chunk frames discarded by the overflow policy are reported to the
+ * discard listener, so a client credit window does not leak.
+ */
+@Slf4j
+final class OutboundMessageQueue {
+
+    enum OverflowPolicy {
+        DROP, COALESCE, DISCONNECT;
+
+        static OverflowPolicy parse(String value) {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /** Frames written per drain task before yielding the writer thread */
+    private static final int MAX_FRAMES_PER_DRAIN = 64;
+
+    private final WebSocketSession wsSession;
+    private final Executor writer;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitMs;
+    private final OverflowPolicy overflowPolicy;
+    private final MetricsService metricsService;
+    private final ScheduledExecutorService windowTimer;
+    private final long coalesceWindowMs;
+    private final int coalesceMaxBytes;
+    private final CompressionStats compressionStats;
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private int bufferedBytes;
+    private boolean draining;
+    private boolean closed;
+    private volatile long sendStartedAt;
+    private long lastChunkSentAt;
+    private boolean windowElapsed;
+    private volatile IntConsumer discardListener;
+
+    OutboundMessageQueue(WebSocketSession wsSession,
+                         Executor writer,
+                         int bufferSizeLimit,
+                         long sendTimeLimitMs,
+                         OverflowPolicy overflowPolicy,
+                         MetricsService metricsService,
+                         ScheduledExecutorService windowTimer,
+                         long coalesceWindowMs,
+                         int coalesceMaxBytes,
+                         CompressionStats compressionStats) {
+        this.wsSession = wsSession;
+        this.writer = writer;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.overflowPolicy = overflowPolicy;
+        this.metricsService = metricsService;
+        this.windowTimer = windowTimer;
+        this.coalesceWindowMs = coalesceWindowMs;
+        this.coalesceMaxBytes = coalesceMaxBytes;
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     * Queue a text frame; coalesceKey may be null for frames that must not be replaced
+     * and batchKey null for frames that must not be merged into a batch
+     *
+     * @return false if the frame was dropped
+     */
+    boolean enqueue(String payload, String coalesceKey, String batchKey) {
+        return offer(List.of(new Frame(payload, null, coalesceKey, batchKey, null, false, false)));
+    }
+
+    /**
+     * Queue a chunk frame that must not be dropped (never replaced, may be batched)
+     * If the overflow policy would drop it, the connection is closed instead
+     *
+     * @return false if the connection was closed
+     */
+    boolean enqueueLossless(String payload, String batchKey) {
+        return offer(List.of(new Frame(payload, null, null, batchKey, null, false, true)));
+    }
+
+    /**
+     * Queue one text message written as consecutive fragments (partial frames)
+     * The fragments are queued, dropped or disconnected as a unit, so no other
+     * frame is ever written between them; the buffer limit does not apply
+     */
+    boolean enqueueFragments(List<String> fragments) {
+        List<Frame> group = new ArrayList<>(fragments.size());
+        for (int i = 0; i < fragments.size(); i++) {
+            group.add(new Frame(fragments.get(i), null, null, null, null, i < fragments.size() - 1, false));
+        }
+        return offer(group);
+    }
+
+    /**
+     * Queue a binary frame (never replaced or batched)
+     */
+    boolean enqueueBinary(byte[] payload) {
+        return enqueueBinary(payload, false);
+    }
+
+    /**
+     * Queue a binary frame; a lossless frame closes the connection instead of being dropped
+     */
+    boolean enqueueBinary(byte[] payload, boolean lossless) {
+        return offer(List.of(new Frame(null, payload, null, null, null, false, lossless)));
+    }
+
+    /**
+     * Close the connection once all frames queued so far are written
+     */
+    void closeAfterFlush(CloseStatus status) {
+        offer(List.of(new Frame(null, null, null, null, status, false, false)));
+    }
+
+    /**
+     * Listener for the number of chunk frames (batch key set) discarded by the overflow policy
+     */
+    void onChunksDiscarded(IntConsumer listener) {
+        this.discardListener = listener;
+    }
+
+    synchronized int bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Discard queued frames (connection already closed)
+     */
+    void dispose() {
+        synchronized (this) {
+            closed = true;
+            metricsService.recordDistribution("websocket.outbound.discarded", frames.size());
+            frames.clear();
+            bufferedBytes = 0;
+        }
+        if (compressionStats != null) {
+            compressionStats.report();
+        }
+    }
+
+    private boolean offer(List<Frame> group) {
+        Frame frame = group.get(0);
+        int groupSize = 0;
+        for (Frame f : group) {
+            groupSize += f.size();
+        }
+        boolean schedule = false;
+        boolean disconnect = false;
+
+        synchronized (this) {
+            if (closed || !wsSession.isOpen()) {
+                return false;
+            }
+
+            long started = sendStartedAt;
+            boolean slowSend = started > 0 && System.currentTimeMillis() - started > sendTimeLimitMs;
+            boolean overBuffer = group.size() == 1 && bufferedBytes + groupSize > bufferSizeLimit;
+
+            if (frame.closeStatus == null && (slowSend || overBuffer)) {
+                switch (frame.lossless ? OverflowPolicy.DISCONNECT : overflowPolicy) {
+                    case DROP -> {
+                        dropped(frame, slowSend);
+                        return false;
+                    }
+                    case COALESCE -> {
+                        // On a slow send the queue must not grow: the frame is only kept
+                        // in place of the frames it supersedes
+                        int superseded = group.size() > 1 ? 0 : coalesce(frame);
+                        if (superseded < 0 || (slowSend && superseded == 0)
+                                || bufferedBytes + groupSize > bufferSizeLimit) {
+                            dropped(frame, slowSend);
+                            return false;
+                        }
+                    }
+                    case DISCONNECT -> {
+                        closed = true;
+                        frames.clear();
+                        bufferedBytes = 0;
+                        disconnect = true;
+                    }
+                }
+            }
+
+            if (!disconnect) {
+                frames.addAll(group);
+                bufferedBytes += groupSize;
+                if (!draining) {
+                    draining = true;
+                    schedule = true;
+                }
+            }
+        }
+
+        if (disconnect) {
+            metricsService.incrementCounter("websocket.outbound.slow_consumer_disconnect");
+            log.warn("Disconnecting slow WebSocket consumer: wsId={}, bufferLimit={}, sendTimeLimit={}ms, losslessFrame={}",
+                    wsSession.getId(), bufferSizeLimit, sendTimeLimitMs, frame.lossless);
+            writer.execute(() -> closeQuietly(CloseStatus.SESSION_NOT_RELIABLE));
+            return false;
+        }
+
+        if (schedule) {
+            writer.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * Remove queued frames superseded by the new one
+     *
+     * @return the number of frames removed, or -1 if the frame cannot be coalesced
+     */
+    private int coalesce(Frame frame) {
+        if (frame.coalesceKey == null) {
+            return -1;
+        }
+        int removed = 0;
+        int removedChunks = 0;
+        Iterator<Frame> it = frames.iterator();
+        while (it.hasNext()) {
+            Frame queued = it.next();
+            if (frame.coalesceKey.equals(queued.coalesceKey)) {
+                it.remove();
+                bufferedBytes -= queued.size();
+                removed++;
+                if (queued.batchKey != null) {
+                    removedChunks++;
+                }
+            }
+        }
+        if (removed > 0) {
+            metricsService.incrementCounter("websocket.outbound.coalesced");
+        }
+        discarded(removedChunks);
+        return removed;
+    }
+
+    private void dropped(Frame frame, boolean slowSend) {
+        if (frame.batchKey != null) {
+            discarded(1);
+        }
+        metricsService.incrementCounter("websocket.outbound.dropped");
+        log.warn("Dropped outbound WebSocket frame: wsId={}, reason={}, buffered={} bytes",
+                wsSession.getId(), slowSend ? "send time limit" : "buffer size limit", bufferedBytes);
+    }
+
+    private void discarded(int chunks) {
+        IntConsumer listener = discardListener;
+        if (listener != null && chunks > 0) {
+            listener.accept(chunks);
+        }
+    }
+
+    private void drain() {
+        for (int written = 0; ; written++) {
+            Frame frame;
+            synchronized (this) {
+                frame = written < MAX_FRAMES_PER_DRAIN ? frames.pollFirst() : null;
+                if (frame == null) {
+                    if (frames.isEmpty() || closed) {
+                        draining = false;
+                        return;
+                    }
+                    break;  // yield the writer thread, reschedule below
+                }
+                bufferedBytes -= frame.size();
+
+                if (frame.batchKey != null && coalesceWindowMs > 0) {
+                    long wait = lastChunkSentAt + coalesceWindowMs - System.currentTimeMillis();
+                    if (wait > 0 && !windowElapsed) {
+                        // Streaming back-to-back: hold the chunk until the window closes
+                        frames.addFirst(frame);
+                        bufferedBytes += frame.size();
+                        windowElapsed = true;
+                        windowTimer.schedule(() -> writer.execute(this::drain), wait, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    windowElapsed = false;
+                    frame = mergeBatch(frame);
+                    lastChunkSentAt = System.currentTimeMillis();
+                }
+            }
+
+            if (frame.closeStatus != null) {
+                closeQuietly(frame.closeStatus);
+                continue;
+            }
+
+            sendStartedAt = System.currentTimeMillis();
+            try {
+                if (wsSession.isOpen() && frame.binary != null) {
+                    wsSession.sendMessage(new BinaryMessage(frame.binary));
+                    metricsService.recordMessageSent("binary");
+                } else if (wsSession.isOpen()) {
+                    wsSession.sendMessage(new TextMessage(frame.payload, !frame.partial));
+                    metricsService.recordMessageSent("text");
+                    if (compressionStats != null) {
+                        compressionStats.record(frame.payload);
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.error("Failed to send message to WebSocket {}: {}", wsSession.getId(), e.getMessage());
+            } finally {
+                sendStartedAt = 0;
+            }
+        }
+        writer.execute(this::drain);
+    }
+
+    /**
+     * Merge queued chunk frames of the same message that directly follow the first one
+     * Caller holds the monitor
+     */
+    private Frame mergeBatch(Frame first) {
+        Frame next = frames.peekFirst();
+        if (next == null || !first.batchKey.equals(next.batchKey)) {
+            return first;
+        }
+
+        StringBuilder batch = new StringBuilder("{\"type\":\"batch\",\"frames\":[").append(first.payload);
+        int merged = 1;
+        while (next != null && first.batchKey.equals(next.batchKey)
+                && batch.length() + next.size() < coalesceMaxBytes) {
+            frames.pollFirst();
+            bufferedBytes -= next.size();
+            batch.append(',').append(next.payload);
+            merged++;
+            next = frames.peekFirst();
+        }
+        metricsService.recordDistribution("websocket.outbound.batch_size", merged);
+        return merged > 1 ? new Frame(batch.append("]}").toString(), null, null, null, null, false, false) : first;
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        try {
+            wsSession.close(status);
+        } catch (IOException e) {
+            log.debug("Error closing WebSocket {}: {}", wsSession.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * partial: more fragments of the same text message follow
+     * lossless: disconnect rather than drop (see class doc)
+     */
+    private record Frame(String payload, byte[] binary, String coalesceKey, String batchKey,
+                         CloseStatus closeStatus, boolean partial, boolean lossless) {
+        int size() {
+            return payload != null ? payload.length() : binary != null ? binary.length : 0;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.demo.websocket.infrastructure;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-session cursor of the highest stream chunk clients have rendered
+ *
+ * Clients acknowledge chunks over the WebSocket ({"type":"ack"}); acks only
+ * update local memory and mark the session dirty. A flusher replicates dirty
+ * cursors to Redis in one pipelined round-trip as a compact string
+ * (stream:ack:{sessionId} = "index:messageId"), so a reconnect on any node
+ * can resume from the acked point.
+ *
+ * With trimming enabled, the flush also drops chunks acknowledged by every
+ * connection of the session on this node from the head of the chunk list
+ * (see RedisStreamCache#trimAcked), so Redis retains unacked chunks only.
+ * Trimming assumes a session's connections share a node (sticky routing).
+ */
+@Component
+@Slf4j
+public class AckCursorStore {
+
+    private static final String ACK_KEY = "stream:ack:{sessionId}";
+    /** Recently superseded messages per session; late acks for them are ignored */
+    private static final int RETIRED_MESSAGES = 8;
+
+    /** Highest acknowledged chunk of a message */
+    public record Cursor(String messageId, int index) {
+
+        String encode() {
+            return index + ":" + messageId;
+        }
+
+        static Cursor decode(String value) {
+            int separator = value.indexOf(':');
+            if (separator <= 0) {
+                return null;
+            }
+            try {
+                return new Cursor(value.substring(separator + 1), Integer.parseInt(value.substring(0, separator)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisStreamCache streamCache;
+    private final boolean enabled;
+    private final boolean trimEnabled;
+    private final Duration ttl;
+    private final Map<String, SessionAcks> sessions = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final TimerWheel.Timeout flushTask;
+
+    public AckCursorStore(StringRedisTemplate redisTemplate,
+                          RedisStreamCache streamCache,
+                          TimerWheel timerWheel,
+                          @Value("${stream.ack.enabled:true}") boolean enabled,
+                          @Value("${stream.ack.flush-interval-ms:1000}") long flushIntervalMs,
+                          @Value("${stream.ack.ttl-minutes:10}") long ttlMinutes,
+                          @Value("${stream.ack.trim-enabled:false}") boolean trimEnabled) {
+        this.redisTemplate = redisTemplate;
+        this.streamCache = streamCache;
+        this.enabled = enabled;
+        this.trimEnabled = trimEnabled;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+
+        if (enabled) {
+            this.flushTask = timerWheel.scheduleWithFixedDelay("ack-cursor-flush", this::flush,
+                    Duration.ofMillis(flushIntervalMs), Duration.ofMillis(flushIntervalMs));
+            log.info("Ack cursors enabled: flushInterval={}ms, ttl={}min, trim={}",
+                    flushIntervalMs, ttlMinutes, trimEnabled);
+        } else {
+            this.flushTask = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record a connection's ack; stale or out-of-order acks are ignored
+     */
+    public void ack(String sessionId, String connectionId, String messageId, int index) {
+        if (!enabled || messageId == null || index < 0) {
+            return;
+        }
+        while (true) {
+            SessionAcks acks = sessions.computeIfAbsent(sessionId, id -> new SessionAcks());
+            boolean moved = acks.ack(connectionId, messageId, index);
+            if (sessions.get(sessionId) != acks) {
+                continue;  // Removed as idle concurrently: record on the new entry
+            }
+            if (moved) {
+                dirty.add(sessionId);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Forget a closed connection; the session cursor itself is kept
+     * in Redis, and locally until it has been flushed (see flush)
+     */
+    public void release(String sessionId, String connectionId) {
+        SessionAcks acks = sessions.get(sessionId);
+        if (acks == null) {
+            return;
+        }
+        acks.release(connectionId);
+        if (!dirty.contains(sessionId)) {
+            sessions.computeIfPresent(sessionId, (id, current) -> current.isIdle() ? null : current);
+        }
+    }
+
+    /**
+     * Latest cursor of a session: this node's copy first, then the replicated one
+     */
+    public Cursor get(String sessionId) {
+        if (!enabled) {
+            return null;
+        }
+        SessionAcks acks = sessions.get(sessionId);
+        Cursor local = acks != null ? acks.latest() : null;
+        if (local != null) {
+            return local;
+        }
+        try {
+            String value = redisTemplate.opsForValue().get(ACK_KEY.replace("{sessionId}", sessionId));
+            return value != null ? Cursor.decode(value) : null;
+        } catch (Exception e) {
+            log.error("Failed to read ack cursor: sessionId={}, error={}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Replicate dirty cursors to Redis and trim acked chunks
+     */
+    void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Map<String, Cursor> cursors = new HashMap<>();
+        List<Cursor> trims = new ArrayList<>();
+        for (String sessionId : dirty) {
+            dirty.remove(sessionId);
+            SessionAcks acks = sessions.get(sessionId);
+            Cursor cursor = acks != null ? acks.latest() : null;
+            if (cursor == null) {
+                continue;
+            }
+            cursors.put(sessionId, cursor);
+            Cursor trim = trimEnabled ? acks.acknowledgedByAll() : null;
+            if (trim != null) {
+                trims.add(trim);
+            }
+        }
+
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")  // Bound to the StringRedisTemplate
+                public <K, V> Object execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                    RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                    cursors.forEach((sessionId, cursor) -> operations.opsForValue()
+                            .set(ACK_KEY.replace("{sessionId}", sessionId), cursor.encode(), ttl));
+                    return null;
+                }
+            });
+            log.debug("Flushed {} ack cursors", cursors.size());
+        } catch (Exception e) {
+            log.error("Failed to flush ack cursors (will retry): count={}, error={}",
+                    cursors.size(), e.getMessage());
+            dirty.addAll(cursors.keySet());
+            return;
+        }
+
+        for (Cursor trim : trims) {
+            streamCache.trimAcked(trim.messageId(), trim.index() + 1);
+        }
+
+        // Sessions whose connections all closed before their cursor was replicated
+        for (String sessionId : cursors.keySet()) {
+            sessions.computeIfPresent(sessionId,
+                    (id, current) -> current.isIdle() && !dirty.contains(id) ? null : current);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flush();
+        }
+    }
+
+    /**
+     * Acks of one session, per connection
+     */
+    private static final class SessionAcks {
+        private final Map<String, Cursor> byConnection = new HashMap<>();
+        private final Deque<String> retired = new ArrayDeque<>();
+        private Cursor latest;
+
+        /**
+         * True if the session cursor moved
+         */
+        synchronized boolean ack(String connectionId, String messageId, int index) {
+            if (retired.contains(messageId)) {
+                return false;
+            }
+            Cursor previous = byConnection.get(connectionId);
+            if (previous != null && previous.messageId().equals(messageId) && index <= previous.index()) {
+                return false;
+            }
+            byConnection.put(connectionId, new Cursor(messageId, index));
+
+            if (latest != null && !latest.messageId().equals(messageId)) {
+                // A new message supersedes the previous one
+                retired.addLast(latest.messageId());
+                if (retired.size() > RETIRED_MESSAGES) {
+                    retired.removeFirst();
+                }
+            } else if (latest != null && index <= latest.index()) {
+                return false;
+            }
+            latest = new Cursor(messageId, index);
+            return true;
+        }
+
+        synchronized void release(String connectionId) {
+            byConnection.remove(connectionId);
+        }
+
+        synchronized Cursor latest() {
+            return latest;
+        }
+
+        synchronized boolean isIdle() {
+            return byConnection.isEmpty();
+        }
+
+        /**
+         * Lowest ack of the latest message over all connections, or null if one lags on an older message
+         */
+        synchronized Cursor acknowledgedByAll() {
+            if (latest == null) {
+                return null;
+            }
+            int min = latest.index();
+            for (Cursor cursor : byConnection.values()) {
+                if (!cursor.messageId().equals(latest.messageId())) {
+                    return null;
+                }
+                min = Math.min(min, cursor.index());
+            }
+            return new Cursor(latest.messageId(), min);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.exception.RateLimitException;
+import com.demo.websocket.exception.StreamCapacityException;
+import com.demo.websocket.service.MetricsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Node admission control for new connections and new streams
+ *
+ * Live signals are sampled on the timer wheel (heap usage, Redis round-trip
+ * latency, bytes queued for WebSocket writes) or tracked inline (open
+ * connections, connection rate); checks only read the latest snapshot.
+ * Heap usage is the old generation's occupancy after its last collection,
+ * so garbage awaiting collection does not count as load.
+ *
+ * New connections are shed first: they are refused at the configured limits
+ * and whenever the stream limit is reached, while streams of connections
+ * already admitted are only refused past the limits plus a headroom, so a
+ * burst of connects can't starve streams in flight. Refusals carry a
+ * jittered retry-after hint; the load balancer may route the retry to
+ * another node.
+ */
+@Component
+@Slf4j
+public class AdmissionController {
+
+    private final StringRedisTemplate redisTemplate;
+    private final MetricsService metricsService;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    /** Old-generation pool with post-GC usage, or null (then used / max heap) */
+    private final MemoryPoolMXBean oldGen = oldGenPool();
+    private final boolean enabled;
+    private final int maxConnections;
+    private final int maxConnectionRate;
+    private final int maxStreams;
+    private final long maxOutboundBytes;
+    private final long maxRedisLatencyMs;
+    private final double maxHeapRatio;
+    private final double streamHeadroom;
+    private final long retryAfterMs;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    // Fixed one-second window for the connection rate
+    private final AtomicLong rateWindow = new AtomicLong();
+    private final AtomicInteger rateCount = new AtomicInteger();
+
+    private volatile LongSupplier outboundBytesGauge = () -> 0;
+    // Latest samples
+    private volatile double heapRatio;
+    private volatile double redisLatencyMs;
+    private volatile long outboundBytes;
+
+    public AdmissionController(StringRedisTemplate redisTemplate,
+                               MetricsService metricsService,
+                               TimerWheel timerWheel,
+                               @Value("${websocket.admission.enabled:true}") boolean enabled,
+                               @Value("${websocket.admission.max-connections:10000}") int maxConnections,
+                               @Value("${websocket.admission.max-connection-rate:200}") int maxConnectionRate,
+                               @Value("${websocket.admission.max-streams:2000}") int maxStreams,
+                               @Value("${websocket.admission.max-outbound-bytes:268435456}") long maxOutboundBytes,
+                               @Value("${websocket.admission.max-redis-latency-ms:250}") long maxRedisLatencyMs,
+                               @Value("${websocket.admission.max-heap-ratio:0.85}") double maxHeapRatio,
+                               @Value("${websocket.admission.stream-headroom:0.1}") double streamHeadroom,
+                               @Value("${websocket.admission.retry-after-ms:5000}") long retryAfterMs,
+                               @Value("${websocket.admission.sample-interval-ms:1000}") long sampleIntervalMs) {
+        this.redisTemplate = redisTemplate;
+        this.metricsService = metricsService;
+        this.enabled = enabled;
+        this.maxConnections = maxConnections;
+        this.maxConnectionRate = maxConnectionRate;
+        this.maxStreams = maxStreams;
+        this.maxOutboundBytes = maxOutboundBytes;
+        this.maxRedisLatencyMs = maxRedisLatencyMs;
+        this.maxHeapRatio = maxHeapRatio;
+        this.streamHeadroom = streamHeadroom;
+        this.retryAfterMs = retryAfterMs;
+
+        if (enabled) {
+            timerWheel.scheduleWithFixedDelay("admission-sample", this::sample,
+                    Duration.ZERO, Duration.ofMillis(sampleIntervalMs));
+            log.info("Admission control enabled: maxConnections={}, maxConnectionRate={}/s, maxStreams={}, " +
+                            "maxOutbound={} bytes, maxRedisLatency={}ms, maxHeap={}",
+                    maxConnections, maxConnectionRate, maxStreams, maxOutboundBytes, maxRedisLatencyMs, maxHeapRatio);
+        }
+    }
+
+    /**
+     * Source of the bytes currently queued for WebSocket writes on this node
+     */
+    public void registerOutboundBytes(LongSupplier gauge) {
+        this.outboundBytesGauge = gauge;
+    }
+
+    /**
+     * Admit a new connection; the caller must call {@link #connectionClosed()} once it closes
+     *
+     * @throws RateLimitException       connection rate exceeded
+     * @throws StreamCapacityException  node at capacity
+     */
+    public void admitConnection(int activeStreams) {
+        if (!enabled) {
+            connections.incrementAndGet();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long window = now / 1000;
+        if (rateWindow.get() != window && rateWindow.getAndSet(window) != window) {
+            rateCount.set(0);
+        }
+        if (rateCount.incrementAndGet() > maxConnectionRate) {
+            reject("connection_rate");
+            throw new RateLimitException("Connection rate limit exceeded",
+                    (window + 1) * 1000 - now + jitter(1000));
+        }
+
+        String overload = activeStreams >= maxStreams ? "streams" : overload(1.0);
+        if (overload == null && connections.get() >= maxConnections) {
+            overload = "connections";
+        }
+        if (overload != null) {
+            reject("connection_" + overload);
+            throw new StreamCapacityException("Server busy (" + overload + ")", retryAfter());
+        }
+        connections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Admit a new stream for a connection that was already admitted
+     *
+     * @throws StreamCapacityException node past its limits plus the stream headroom
+     */
+    public void admitStream(int activeStreams) {
+        if (!enabled) {
+            return;
+        }
+        String overload = activeStreams >= maxStreams * (1 + streamHeadroom) ? "streams" : overload(1 + streamHeadroom);
+        if (overload != null) {
+            reject("stream_" + overload);
+            throw new StreamCapacityException("Stream capacity exceeded (" + overload + ")", retryAfter());
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Name of the first sampled signal past its limit scaled by factor, or null
+     */
+    private String overload(double factor) {
+        if (heapRatio > Math.min(maxHeapRatio * factor, 0.98)) {
+            return "heap";
+        }
+        if (redisLatencyMs > maxRedisLatencyMs * factor) {
+            return "redis_latency";
+        }
+        if (outboundBytes > maxOutboundBytes * factor) {
+            return "outbound_bytes";
+        }
+        return null;
+    }
+
+    private void sample() {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        MemoryUsage afterGc = oldGen != null ? oldGen.getCollectionUsage() : null;
+        if (afterGc != null) {
+            long poolMax = afterGc.getMax() > 0 ? afterGc.getMax() : max;
+            heapRatio = poolMax > 0 ? (double) afterGc.getUsed() / poolMax : 0;
+        } else {
+            heapRatio = max > 0 ? (double) heap.getUsed() / max : 0;
+        }
+
+        try {
+            outboundBytes = outboundBytesGauge.getAsLong();
+        } catch (Exception e) {
+            log.debug("Outbound bytes gauge failed: {}", e.getMessage());
+        }
+
+        long start = System.nanoTime();
+        double latencyMs;
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.ping());
+            latencyMs = (System.nanoTime() - start) / 1_000_000.0;
+        } catch (Exception e) {
+            // Unreachable Redis counts as the slowest possible round-trip
+            latencyMs = Math.max(maxRedisLatencyMs * 4.0, (System.nanoTime() - start) / 1_000_000.0);
+            log.warn("Redis ping failed during admission sampling: {}", e.getMessage());
+        }
+        // Smoothed, so one slow ping doesn't flip admission
+        double previous = redisLatencyMs;
+        redisLatencyMs = previous == 0 ? latencyMs : previous * 0.7 + latencyMs * 0.3;
+
+        metricsService.recordDistribution("admission.redis_latency_ms", (long) redisLatencyMs);
+        metricsService.recordDistribution("admission.outbound_bytes", outboundBytes);
+        metricsService.setGaugeValue("admission.connections", connections.get());
+    }
+
+    private void reject(String reason) {
+        metricsService.incrementCounter("admission.rejected", "reason", reason);
+        log.warn("Admission rejected: reason={}, connections={}, heap={}, redisLatency={}ms, outbound={} bytes",
+                reason, connections.get(), String.format("%.2f", heapRatio),
+                String.format("%.1f", redisLatencyMs), outboundBytes);
+    }
+
+    /**
+     * Base retry-after plus up to 50% jitter, so refused clients don't return together
+     */
+    private long retryAfter() {
+        return retryAfterMs + jitter(retryAfterMs / 2);
+    }
+
+    private static long jitter(long bound) {
+        return bound > 0 ? ThreadLocalRandom.current().nextLong(bound) : 0;
+    }
+
+    /**
+     * Tenured heap pool (G1 Old Gen, PS Old Gen, Tenured Gen...), or the only
+     * collected heap pool of a single-generation collector (ZGC, Shenandoah)
+     */
+    private static MemoryPoolMXBean oldGenPool() {
+        MemoryPoolMXBean single = null;
+        int collected = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) {
+                continue;
+            }
+            String name = pool.getName();
+            if (name.contains("Old") || name.contains("Tenured")) {
+                return pool;
+            }
+            single = pool;
+            collected++;
+        }
+        return collected == 1 ? single : null;
+    }
+}
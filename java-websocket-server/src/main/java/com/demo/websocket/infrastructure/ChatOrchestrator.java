@@ -4,13 +4,14 @@ import com.demo.websocket.domain.ChatSession;
 import com.demo.websocket.domain.Message;
 import com.demo.websocket.domain.StreamChunk;
 import com.demo.websocket.domain.StreamMetadata;
+import com.demo.websocket.exception.StreamCapacityException;
 import com.demo.websocket.model.ChatMessage;
 import com.demo.websocket.service.EventPublisher;
+import com.demo.websocket.service.MetricsService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -19,6 +20,7 @@ import org.springframework.data.redis.core.RedisTemplate;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -31,7 +33,12 @@ public class ChatOrchestrator {
     private final MessageRepository messageRepository;
     private final RedisPubSubPublisher pubSubPublisher;
     private final RedisMessageListenerContainer listenerContainer;
+    private final RedisChannelRouter channelRouter;
     private final ObjectMapper objectMapper;
+    private final SessionLaneExecutor sessionLanes;
+    private final StreamTracer streamTracer;
+    private final AdmissionController admissionController;
+    private final MetricsService metricsService;
     
     // Optional: Kafka event publisher (null if Kafka is disabled)
     private final EventPublisher eventPublisher;
@@ -39,9 +46,19 @@ public class ChatOrchestrator {
     @Value("${stream.ownership-ttl-minutes:10}")  // NEW: Configurable TTL for ownership
     private int ownershipTtlMinutes;
 
+    @Value("${stream.delta-chunks:false}")
+    private boolean deltaChunks;
+
+    // Chunks queued on a session's lane beyond which live delivery is skipped
+    @Value("${stream.max-pending-chunks:1000}")
+    private int maxPendingChunks;
+
     // Track active streaming sessions
     private final Map<String, StreamingContext> activeStreams = new ConcurrentHashMap<>();
 
+    // Current legacy channel listener per session (replaced on re-subscribe)
+    private final Map<String, MessageListener> legacyListeners = new ConcurrentHashMap<>();
+
     @Autowired
     private RedisTemplate<String, String> redisTemplate;  // Assume injected via constructor
 
@@ -49,13 +66,23 @@ public class ChatOrchestrator {
                            MessageRepository messageRepository,
                            RedisPubSubPublisher pubSubPublisher,
                            RedisMessageListenerContainer listenerContainer,
+                           RedisChannelRouter channelRouter,
                            ObjectMapper objectMapper,
+                           SessionLaneExecutor sessionLanes,
+                           StreamTracer streamTracer,
+                           AdmissionController admissionController,
+                           MetricsService metricsService,
                            @Autowired(required = false) EventPublisher eventPublisher) {
         this.streamCache = streamCache;
         this.messageRepository = messageRepository;
         this.pubSubPublisher = pubSubPublisher;
         this.listenerContainer = listenerContainer;
+        this.channelRouter = channelRouter;
         this.objectMapper = objectMapper;
+        this.sessionLanes = sessionLanes;
+        this.streamTracer = streamTracer;
+        this.admissionController = admissionController;
+        this.metricsService = metricsService;
         this.eventPublisher = eventPublisher;
         
         log.info("Ownership TTL configured: {} minutes", ownershipTtlMinutes);
@@ -70,11 +97,18 @@ public class ChatOrchestrator {
     /**
      * Start listening for streaming chat from AI service
      * This subscribes to the legacy chat:stream channel and converts to new format
+     *
+     * @throws StreamCapacityException node past its stream limits
      */
     public void startStreamingSession(String sessionId,
                                       String userId,
                                       StreamCallback callback) {
 
+        // Load shedding before claiming ownership; a session already streamed here adds no load
+        if (!activeStreams.containsKey(sessionId)) {
+            admissionController.admitStream(activeStreams.size());
+        }
+
         String messageId = UUID.randomUUID().toString();
 
         // Create chat session
@@ -100,6 +134,9 @@ public class ChatOrchestrator {
         
         log.info("Claimed ownership for session: {} by node: {}", sessionId, getNodeId());
 
+        // Pin the session so its writes and recoveries run on one local lane
+        sessionLanes.pin(sessionId);
+
         // Initialize stream in cache
         streamCache.initializeStream(session);
 
@@ -127,42 +164,68 @@ public class ChatOrchestrator {
         log.info("ListenerContainer status - isRunning: {}, isActive: {}",
                 listenerContainer.isRunning(), listenerContainer.isActive());
 
+        String sessionId = context.session.getSessionId();
         MessageListener listener = (message, pattern) -> {
             try {
-                String body = new String(message.getBody());
-                log.info("=== RECEIVED MESSAGE FROM REDIS ===");
-                log.info("Channel: {}", channel);
-                log.info("Message body (first 200 chars): {}", body.substring(0, Math.min(200, body.length())));
-                log.info("Full message length: {}", body.length());
-
+                byte[] body = message.getBody();
                 ChatMessage chatMessage = objectMapper.readValue(body, ChatMessage.class);
-                log.info("Parsed ChatMessage: messageId={}, role={}, isComplete={}, contentLength={}",
-                        chatMessage.getMessageId(), chatMessage.getRole(),
-                        chatMessage.getIsComplete(),
-                        chatMessage.getContent() != null ? chatMessage.getContent().length() : 0);
-
-                handleLegacyMessage(chatMessage, context);
-                log.info("=== MESSAGE PROCESSED SUCCESSFULLY ===");
+                streamTracer.record(sessionId, StreamTracer.Stage.RECEIVED,
+                        chatMessage.getMessageId(), context.chunkIndex.get(), body.length);
+
+                // Backpressure without blocking the listener: past the session's backlog limit the
+                // chunk is still cached and published, but skips live delivery; the callback
+                // resumes it from the cache (StreamCallback.onChunkSkipped)
+                int pending = context.pendingChunks.incrementAndGet();
+                boolean spill = pending > maxPendingChunks;
+                if (spill) {
+                    metricsService.incrementCounter("stream.backpressure.spilled");
+                    streamTracer.record(sessionId, StreamTracer.Stage.SPILLED,
+                            chatMessage.getMessageId(), -1, pending);
+                }
+
+                // Process in order on the session's lane, off the listener thread
+                boolean queued = sessionLanes.execute(sessionId, () -> {
+                    context.pendingChunks.decrementAndGet();
+                    try {
+                        handleLegacyMessage(chatMessage, context, !spill);
+                    } catch (Exception e) {
+                        log.error("Error processing message from channel: {}", channel, e);
+                        streamTracer.dumpToLog(sessionId, "message processing failed");
+                        context.callback.onError(e);
+                    }
+                });
+                if (!queued) {
+                    context.pendingChunks.decrementAndGet();
+                    // Lane backlog full (persistence stalled): fail the stream rather than lose chunks silently
+                    streamTracer.dumpToLog(sessionId, "session lane full");
+                    context.callback.onError(new StreamCapacityException("Session lane backlog full"));
+                }
 
             } catch (Exception e) {
-                log.error("=== ERROR PROCESSING MESSAGE FROM CHANNEL: {} ===", channel, e);
+                log.error("Error processing message from channel: {}", channel, e);
+                streamTracer.dumpToLog(sessionId, "message parsing failed");
                 context.callback.onError(e);
             }
         };
 
-        ChannelTopic topic = new ChannelTopic(channel);
-        listenerContainer.addMessageListener(listener, topic);
+        // Replace any listener left from a previous stream of this session
+        MessageListener previous = legacyListeners.put(context.session.getSessionId(), listener);
+        if (previous != null) {
+            channelRouter.removeRoute(channel, previous);
+        }
+        channelRouter.addRoute(channel, listener);
 
         log.info("=== SUBSCRIPTION COMPLETE ===");
         log.info("Channel: {}", channel);
-        log.info("Listener added to container");
+        log.info("Listener routed: patternRouting={}", channelRouter.isPatternRouting());
         // log.info("Active message listeners count: {}", listenerContainer.getMessageListeners().size());
     }
 
     /**
      * Handle legacy chat message and convert to new streaming format
+     * A chunk not delivered live is reported to the callback as skipped once it is cached
      */
-    private void handleLegacyMessage(ChatMessage chatMessage, StreamingContext context) {
+    private void handleLegacyMessage(ChatMessage chatMessage, StreamingContext context, boolean deliver) {
         ChatSession session = context.session;
 
         // Add this check at the beginning
@@ -172,19 +235,10 @@ public class ChatOrchestrator {
             return;
         }
 
-        log.info("=== HANDLING LEGACY MESSAGE ===");
-        log.info("SessionId: {}", session.getSessionId());
-        log.info("MessageId: {}", session.getMessageId());
-        log.info("Role: {}", chatMessage.getRole());
-        log.info("IsComplete: {}", chatMessage.getIsComplete());
-        log.info("ContentLength: {}", chatMessage.getContent() != null ? chatMessage.getContent().length() : 0);
-        log.info("ChunkIndex: {}", context.chunkIndex.get());
-
-        // Update session status
+        // Update session status (persisted together with the chunk append below)
         if (session.getStatus() == ChatSession.SessionStatus.INITIALIZING) {
             log.info("Updating session status from INITIALIZING to STREAMING");
             session.setStatus(ChatSession.SessionStatus.STREAMING);
-            streamCache.updateSession(session);
         }
 
         // Create stream chunk with accumulated content (not just the chunk)
@@ -192,53 +246,73 @@ public class ChatOrchestrator {
         // We want to use accumulated content for display
         if (!chatMessage.getIsComplete() && (session.getMessageId() == null || session.getMessageId().isEmpty())) {
             session.setMessageId(chatMessage.getMessageId());
-            streamCache.updateSession(session);
             log.info("Set new messageId for session: {}", chatMessage.getMessageId());
         }
 
-        StreamChunk chunk = StreamChunk.builder()
+        // Chunk indices are per message: a later message on this context starts again at 0,
+        // since the cache maps index to list position (RedisStreamCache RANGE/TRIM scripts)
+        if (!Objects.equals(chatMessage.getMessageId(), context.indexedMessageId)) {
+            if (context.indexedMessageId != null) {
+                session.setMessageId(chatMessage.getMessageId());
+                context.chunkIndex.set(0);
+            }
+            context.indexedMessageId = chatMessage.getMessageId();
+        }
+
+        StreamChunk.StreamChunkBuilder chunkBuilder = StreamChunk.builder()
                 .messageId(chatMessage.getMessageId())  // Changed from session.getMessageId()
                 .index(context.chunkIndex.getAndIncrement())
                 .content(chatMessage.getContent()) // Use accumulated content, not just the chunk
                 .type(StreamChunk.ChunkType.TEXT)
-                .timestamp(Instant.now())
-                .build();
+                .timestamp(Instant.now());
+
+        // Delta mode: store and fan out only the increment over the previous content
+        if (deltaChunks) {
+            String delta = context.deltaFor(chatMessage.getMessageId(), chatMessage.getContent());
+            if (delta != null) {
+                chunkBuilder.content(delta)
+                        .metadata(Map.of(StreamChunk.DELTA_METADATA_KEY, true));
+            }
+        }
 
-        log.info("Created StreamChunk: messageId={}, index={}, contentLength={}",
-                chunk.getMessageId(), chunk.getIndex(),
+        StreamChunk chunk = chunkBuilder.build();
+        // Encoded at most once per form, shared by the callback, cache, Kafka and fan-out
+        ChunkEnvelope envelope = ChunkEnvelope.of(objectMapper, session.getSessionId(), session.getUserId(), chunk);
+
+        String sessionId = session.getSessionId();
+        streamTracer.record(sessionId, StreamTracer.Stage.CHUNK, chunk.getMessageId(), chunk.getIndex(),
                 chunk.getContent() != null ? chunk.getContent().length() : 0);
 
-        // Append to cache
-        streamCache.appendChunk(chatMessage.getMessageId(), chunk);  // Changed from session.getMessageId()
-        log.info("Appended chunk to cache");
+        // Callback first - the client should not wait for persistence
+        if (deliver) {
+            context.callback.onChunk(envelope);
+            streamTracer.record(sessionId, StreamTracer.Stage.CALLBACK, chunk.getMessageId(), chunk.getIndex(), 0);
+        }
+
+        // Append to cache and update session hash in one atomic round-trip
+        // (buffered and batched when write-behind is enabled)
+        session.setLastActivityTime(Instant.now());
+        session.setTotalChunks(context.chunkIndex.get());
+        streamCache.appendChunk(chatMessage.getMessageId(), envelope, session);  // Changed from session.getMessageId()
+        streamTracer.record(sessionId, StreamTracer.Stage.CACHED, chunk.getMessageId(), chunk.getIndex(), 0);
+        if (!deliver) {
+            context.callback.onChunkSkipped(envelope);
+        }
 
         // Publish chunk event to Kafka for analytics (if enabled)
         if (eventPublisher != null) {
-            eventPublisher.publishChunkReceived(session.getSessionId(), chunk);
+            eventPublisher.publishChunkReceived(envelope);
         }
 
         // Publish to new PubSub format (for multi-node)
-        pubSubPublisher.publishChunk(session.getSessionId(), chunk);
-        log.info("Published chunk to multi-node PubSub");
-
-        // Callback - this should send to WebSocket
-        log.info("=== CALLING WEBSOCKET CALLBACK ===");
-        log.info("Callback type: {}", context.callback.getClass().getName());
-        context.callback.onChunk(chunk);
-        log.info("=== CALLBACK COMPLETED ===");
-
-        // Update session
-        session.setLastActivityTime(Instant.now());
-        session.setTotalChunks(context.chunkIndex.get());
-        streamCache.updateSession(session);
+        pubSubPublisher.publishChunk(envelope);
+        streamTracer.record(sessionId, StreamTracer.Stage.PUBLISHED, chunk.getMessageId(), chunk.getIndex(), 0);
 
         // Check if complete
         if (chatMessage.getIsComplete() != null && chatMessage.getIsComplete()) {
             log.info("Message is complete, handling completion");
             handleStreamComplete(chatMessage, context);
         }
-
-        log.info("=== LEGACY MESSAGE HANDLING COMPLETE ===");
     }
 
     /**
@@ -289,12 +363,15 @@ public class ChatOrchestrator {
 
             // Cleanup
             activeStreams.remove(session.getSessionId());
+            sessionLanes.unpin(session.getSessionId());
 
             // NEW: Release ownership
             String ownerKey = "session:owner:" + session.getSessionId();
             redisTemplate.delete(ownerKey);
             log.info("Released ownership for completed session: {}", session.getSessionId());
 
+            streamTracer.record(session.getSessionId(), StreamTracer.Stage.COMPLETE,
+                    currentMessageId, context.chunkIndex.get(), latency.toMillis());
             log.info("Stream completed: messageId={}, chunks={}, latency={}ms",
                     currentMessageId,
                     context.chunkIndex.get(),
@@ -321,7 +398,7 @@ public class ChatOrchestrator {
         context.chunkIndex.set(session.getTotalChunks());
         activeStreams.put(sessionId, context);
 
-        // Subscribe to PubSub for remaining chunks
+        // Subscribe to PubSub for remaining chunks (released once the stream ends)
         pubSubPublisher.subscribe(sessionId, new PubSubListener() {
             @Override
             public void onChunk(StreamChunk chunk) {
@@ -332,11 +409,13 @@ public class ChatOrchestrator {
             public void onComplete(Message message) {
                 callback.onComplete(message);
                 activeStreams.remove(sessionId);
+                pubSubPublisher.unsubscribe(sessionId, this);
             }
 
             @Override
             public void onError(String error) {
                 callback.onError(new RuntimeException(error));
+                pubSubPublisher.unsubscribe(sessionId, this);
             }
         });
     }
@@ -349,6 +428,9 @@ public class ChatOrchestrator {
                                    Throwable error) {
         log.error("Stream error: sessionId={}, messageId={}",
                 session.getSessionId(), session.getMessageId(), error);
+        streamTracer.record(session.getSessionId(), StreamTracer.Stage.ERROR,
+                session.getMessageId(), -1, 0, String.valueOf(error.getMessage()));
+        streamTracer.dumpToLog(session.getSessionId(), "stream error");
 
         session.setStatus(ChatSession.SessionStatus.ERROR);
         streamCache.updateSession(session);
@@ -370,6 +452,7 @@ public class ChatOrchestrator {
 
         // Cleanup
         activeStreams.remove(session.getSessionId());
+        sessionLanes.unpin(session.getSessionId());
 
         // NEW: Release ownership on error
         String ownerKey = "session:owner:" + session.getSessionId();
@@ -384,14 +467,41 @@ public class ChatOrchestrator {
         final ChatSession session;
         final StreamCallback callback;
         final AtomicInteger chunkIndex;
+        final AtomicInteger pendingChunks = new AtomicInteger();
         final Instant startTime;
 
+        // Message the chunk index currently counts for
+        private String indexedMessageId;
+
+        // Last accumulated content seen, used to derive delta chunks
+        private String lastMessageId;
+        private String lastContent = "";
+
         StreamingContext(ChatSession session, StreamCallback callback) {
             this.session = session;
             this.callback = callback;
             this.chunkIndex = new AtomicInteger(0);
             this.startTime = Instant.now();
         }
+
+        /**
+         * Derive the increment of accumulated content over the previous message
+         * Returns null if the content does not extend the previous one (full resend)
+         */
+        String deltaFor(String messageId, String content) {
+            String current = content != null ? content : "";
+            String previous = messageId != null && messageId.equals(lastMessageId) ? lastContent : "";
+            lastMessageId = messageId;
+            lastContent = current;
+            return current.startsWith(previous) ? current.substring(previous.length()) : null;
+        }
+    }
+
+    /**
+     * Sessions currently streamed by this node
+     */
+    public int getActiveStreamCount() {
+        return activeStreams.size();
     }
 
     // NEW: Helper to get current node ID (from env or random)
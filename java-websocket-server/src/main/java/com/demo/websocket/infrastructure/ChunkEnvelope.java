@@ -0,0 +1,115 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.domain.PubSubMessage;
+import com.demo.websocket.domain.StreamChunk;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Pre-encoded chunk, created once per chunk and shared by every sink
+ *
+ * Each wire form is encoded on first use and cached, so a chunk is
+ * serialized at most once per form no matter how many sinks and sockets
+ * it reaches:
+ * - chunkJson: StreamChunk JSON (Redis list / stream log storage)
+ * - pubSubJson: PubSubMessage for the fan-out channel, embedding chunkJson as-is
+ * - frameJson: {"type":"message","data":ChatMessage} WebSocket text frame,
+ *   streamed by ChunkFrameEncoder
+ * - chunkEvent: CHUNK_RECEIVED analytics event (Kafka)
+ *
+ * The wrapped chunk must not be modified once the envelope is created.
+ * Concurrent first uses may encode a form twice; both results are equal.
+ */
+public final class ChunkEnvelope {
+
+    private final ObjectMapper objectMapper;
+    private final String sessionId;
+    private final String userId;
+    private final StreamChunk chunk;
+    private final Instant createdAt = Instant.now();
+
+    private volatile String chunkJson;
+    private volatile String pubSubJson;
+    private volatile String frameJson;
+    private volatile Map<String, Object> chunkEvent;
+
+    private ChunkEnvelope(ObjectMapper objectMapper, String sessionId, String userId, StreamChunk chunk) {
+        this.objectMapper = objectMapper;
+        this.sessionId = sessionId;
+        this.userId = userId;
+        this.chunk = chunk;
+    }
+
+    /**
+     * Wrap a chunk; userId is the author shown in WebSocket frames
+     */
+    public static ChunkEnvelope of(ObjectMapper objectMapper, String sessionId, String userId, StreamChunk chunk) {
+        return new ChunkEnvelope(objectMapper, sessionId, userId, chunk);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public StreamChunk getChunk() {
+        return chunk;
+    }
+
+    public String chunkJson() throws JsonProcessingException {
+        String json = chunkJson;
+        if (json == null) {
+            json = objectMapper.writeValueAsString(chunk);
+            chunkJson = json;
+        }
+        return json;
+    }
+
+    public String pubSubJson() throws JsonProcessingException {
+        String json = pubSubJson;
+        if (json == null) {
+            PubSubMessage message = PubSubMessage.builder()
+                    .type(PubSubMessage.Type.CHUNK)
+                    .sessionId(sessionId)
+                    .messageId(chunk.getMessageId())
+                    .data(new RawValue(chunkJson()))
+                    .timestamp(createdAt)
+                    .build();
+            json = objectMapper.writeValueAsString(message);
+            pubSubJson = json;
+        }
+        return json;
+    }
+
+    public String frameJson() throws IOException {
+        String json = frameJson;
+        if (json == null) {
+            json = ChunkFrameEncoder.encode(objectMapper.getFactory(), sessionId, userId, chunk);
+            frameJson = json;
+        }
+        return json;
+    }
+
+    public Map<String, Object> chunkEvent() {
+        Map<String, Object> event = chunkEvent;
+        if (event == null) {
+            event = Map.of(
+                    "eventType", "CHUNK_RECEIVED",
+                    "timestamp", chunk.getTimestamp().toString(),
+                    "sessionId", sessionId,
+                    "messageId", chunk.getMessageId(),
+                    "chunkIndex", chunk.getIndex(),
+                    "contentLength", chunk.getContent() != null ? chunk.getContent().length() : 0);
+            chunkEvent = event;
+        }
+        return event;
+    }
+}
@@ -0,0 +1,147 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.domain.StreamChunk;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Streaming encoder for WebSocket chunk frames
+ *
+ * Writes {"type":"message","data":{...ChatMessage fields...}} straight
+ * into a per-thread reusable char buffer with a JsonGenerator: no builder,
+ * no wrapper map and no reflective bean serialization per token. Field
+ * names are pre-quoted; output is identical to ObjectMapper serialization
+ * of the ChatMessage chunk frame (same names, order and null handling).
+ */
+final class ChunkFrameEncoder {
+
+    /** Buffers grown beyond this are dropped after use instead of retained */
+    private static final int MAX_RETAINED_CHARS = 64 * 1024;
+
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString DATA = new SerializedString("data");
+    private static final SerializedString MESSAGE_ID = new SerializedString("message_id");
+    private static final SerializedString SESSION_ID = new SerializedString("session_id");
+    private static final SerializedString USER_ID = new SerializedString("user_id");
+    private static final SerializedString ROLE = new SerializedString("role");
+    private static final SerializedString CONTENT = new SerializedString("content");
+    private static final SerializedString CHUNK = new SerializedString("chunk");
+    private static final SerializedString DELTA = new SerializedString("delta");
+    private static final SerializedString CHUNK_INDEX = new SerializedString("chunk_index");
+    private static final SerializedString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializedString IS_COMPLETE = new SerializedString("is_complete");
+
+    private static final ThreadLocal<CharBufferWriter> BUFFERS = ThreadLocal.withInitial(CharBufferWriter::new);
+
+    private ChunkFrameEncoder() {
+    }
+
+    static String encode(JsonFactory factory, String sessionId, String userId, StreamChunk chunk) throws IOException {
+        CharBufferWriter out = BUFFERS.get();
+        out.reset();
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeFieldName(TYPE);
+            gen.writeString("message");
+            gen.writeFieldName(DATA);
+            gen.writeStartObject();
+            // Same order as ObjectMapper: plain properties first, then @JsonProperty-renamed ones
+            writeString(gen, ROLE, "assistant");
+            writeString(gen, CONTENT, chunk.isDelta() ? null : chunk.getContent());
+            writeString(gen, CHUNK, chunk.getContent());
+            if (chunk.isDelta()) {
+                gen.writeFieldName(DELTA);
+                gen.writeBoolean(true);
+            }
+            gen.writeFieldName(TIMESTAMP);
+            if (chunk.getTimestamp() != null) {
+                gen.writeNumber(chunk.getTimestamp().toEpochMilli());
+            } else {
+                gen.writeNull();
+            }
+            writeString(gen, MESSAGE_ID, chunk.getMessageId());
+            writeString(gen, SESSION_ID, sessionId);
+            writeString(gen, USER_ID, userId);
+            gen.writeFieldName(CHUNK_INDEX);
+            gen.writeNumber(chunk.getIndex());
+            gen.writeFieldName(IS_COMPLETE);
+            gen.writeBoolean(false);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        String frame = out.toString();
+        if (out.capacity() > MAX_RETAINED_CHARS) {
+            BUFFERS.remove();
+        }
+        return frame;
+    }
+
+    private static void writeString(JsonGenerator gen, SerializedString name, String value) throws IOException {
+        gen.writeFieldName(name);
+        if (value != null) {
+            gen.writeString(value);
+        } else {
+            gen.writeNull();
+        }
+    }
+
+    /**
+     * Growable char buffer; close is a no-op so the generator can be closed per frame
+     */
+    private static final class CharBufferWriter extends Writer {
+        private char[] buf = new char[512];
+        private int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(cbuf, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(count + 1);
+            buf[count++] = (char) c;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            ensureCapacity(count + len);
+            str.getChars(off, off + len, buf, count);
+            count += len;
+        }
+
+        private void ensureCapacity(int required) {
+            if (required > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, count);
+        }
+    }
+}
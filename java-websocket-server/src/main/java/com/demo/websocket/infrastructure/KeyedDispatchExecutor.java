@@ -0,0 +1,233 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.service.MetricsService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, order-preserving dispatcher for Redis fan-out messages
+ *
+ * Keys (session IDs) are hashed onto single-threaded stripes with bounded
+ * queues: messages of one key are delivered FIFO, different keys run in
+ * parallel, and thread count stays fixed regardless of message rate.
+ *
+ * Tasks are submitted on the Redis subscription (I/O) thread, which serves
+ * every subscription of the connection, so it must not park for long.
+ * Overflow policy when a stripe's queue is full:
+ * - drop-newest (default): the incoming message is lost
+ * - drop-oldest: the oldest queued message of the stripe is lost; it may
+ *   belong to another key sharing the stripe
+ * - block: the subscription thread waits up to block-timeout-ms, then the
+ *   incoming message is lost
+ * A lost message is never silent: its key is marked broken, the key's
+ * remaining queued and incoming messages are skipped (they follow a gap),
+ * and the lost task's loss callback runs on a separate notifier thread so
+ * its listeners can resync from the stream cache. Once the callback has
+ * run, messages dispatched after it are delivered again. Every loss is
+ * counted (redis.dispatch.dropped).
+ */
+@Component
+@Slf4j
+public class KeyedDispatchExecutor {
+
+    private static final String QUEUE_DEPTH_GAUGE = "redis.dispatch.queue.depth";
+    private static final String DROPPED_COUNTER = "redis.dispatch.dropped";
+    private static final String SKIPPED_COUNTER = "redis.dispatch.skipped";
+
+    /** Broken-key mark while the loss callback has not run yet: skip everything */
+    private static final long RESYNC_PENDING = Long.MAX_VALUE;
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_NEWEST, DROP_OLDEST;
+
+        static OverflowPolicy parse(String value) {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final ThreadPoolExecutor[] stripes;
+    private final String[] stripeGauges;
+    private final ExecutorService lossNotifier;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final MetricsService metricsService;
+
+    // Dispatch order across all keys; a task is skipped if its key broke at or after it
+    private final AtomicLong sequence = new AtomicLong();
+    // key -> sequence up to which its tasks are skipped (RESYNC_PENDING until notified)
+    private final Map<String, Long> brokenKeys = new ConcurrentHashMap<>();
+
+    public KeyedDispatchExecutor(MetricsService metricsService,
+                                 @Value("${stream.dispatch.threads:0}") int threads,
+                                 @Value("${stream.dispatch.queue-capacity:10000}") int queueCapacity,
+                                 @Value("${stream.dispatch.overflow-policy:drop-newest}") String overflowPolicy,
+                                 @Value("${stream.dispatch.block-timeout-ms:50}") long blockTimeoutMs,
+                                 @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.metricsService = metricsService;
+        this.overflowPolicy = OverflowPolicy.parse(overflowPolicy);
+        this.blockTimeoutMs = blockTimeoutMs;
+
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        boolean virtual = VirtualThreads.resolve(virtualThreads, "Redis dispatch");
+        this.stripes = new ThreadPoolExecutor[count];
+        this.stripeGauges = new String[count];
+        for (int i = 0; i < count; i++) {
+            String name = "redis-dispatch-" + i;
+            stripeGauges[i] = QUEUE_DEPTH_GAUGE + "." + i;
+            metricsService.setGaugeValue(stripeGauges[i], 0);
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> VirtualThreads.newThread(r, name, virtual),
+                    rejectionHandler());
+        }
+        // At most one pending notification per broken key, so the queue stays small
+        this.lossNotifier = Executors.newSingleThreadExecutor(
+                r -> VirtualThreads.newThread(r, "redis-dispatch-loss", virtual));
+
+        log.info("Redis dispatch executor initialized: stripes={}, queueCapacity={}, overflowPolicy={}, blockTimeout={}ms, virtualThreads={}",
+                count, queueCapacity, this.overflowPolicy, blockTimeoutMs, virtual);
+    }
+
+    /**
+     * Dispatch a task after all earlier tasks of the same key
+     * If the task (or an earlier one of its key) is lost to overflow, onLost is
+     * called instead, once per break, so the key's listeners can resync
+     */
+    public void dispatch(String key, Runnable task, Runnable onLost) {
+        String normalizedKey = key != null ? key : "";
+        int stripe = Math.floorMod(normalizedKey.hashCode(), stripes.length);
+        KeyedTask keyedTask = new KeyedTask(normalizedKey, stripe, sequence.incrementAndGet(), task, onLost);
+        metricsService.incrementGauge(QUEUE_DEPTH_GAUGE);
+        metricsService.incrementGauge(stripeGauges[stripe]);
+        stripes[stripe].execute(keyedTask);
+    }
+
+    private RejectedExecutionHandler rejectionHandler() {
+        return (task, executor) -> {
+            KeyedTask rejected = (KeyedTask) task;
+            if (executor.isShutdown()) {
+                dequeued(rejected);
+                return;
+            }
+            switch (overflowPolicy) {
+                case BLOCK -> {
+                    try {
+                        if (!executor.getQueue().offer(rejected, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                            lost(rejected, "queue full after " + blockTimeoutMs + "ms");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        lost(rejected, "interrupted");
+                    }
+                }
+                case DROP_NEWEST -> lost(rejected, "queue full");
+                case DROP_OLDEST -> {
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+                    Runnable evicted = queue.poll();
+                    if (evicted != null) {
+                        lost((KeyedTask) evicted, "queue full, evicted oldest");
+                    }
+                    executor.execute(rejected);
+                }
+            }
+        };
+    }
+
+    /**
+     * Mark the task's key broken and schedule its loss callback (first loss of a break only)
+     */
+    private void lost(KeyedTask task, String reason) {
+        dequeued(task);
+        metricsService.incrementCounter(DROPPED_COUNTER);
+        Long previous = brokenKeys.put(task.key, RESYNC_PENDING);
+        boolean firstLoss = previous == null || previous != RESYNC_PENDING;
+        log.warn("Lost Redis dispatch message, resyncing key: key={}, policy={}, reason={}",
+                task.key, overflowPolicy, reason);
+        if (firstLoss) {
+            lossNotifier.execute(() -> notifyLost(task));
+        }
+    }
+
+    private void notifyLost(KeyedTask task) {
+        // Tasks dispatched from here on reach listeners that know about the gap
+        brokenKeys.put(task.key, sequence.get());
+        try {
+            task.onLost.run();
+        } catch (Exception e) {
+            log.error("Error in dispatch loss callback: key={}", task.key, e);
+        }
+    }
+
+    private void dequeued(KeyedTask task) {
+        metricsService.decrementGauge(QUEUE_DEPTH_GAUGE);
+        metricsService.decrementGauge(stripeGauges[task.stripe]);
+    }
+
+    /**
+     * Task of one key; skipped if its key broke at or after it was dispatched
+     */
+    private final class KeyedTask implements Runnable {
+        final String key;
+        final int stripe;
+        final long sequence;
+        final Runnable task;
+        final Runnable onLost;
+
+        KeyedTask(String key, int stripe, long sequence, Runnable task, Runnable onLost) {
+            this.key = key;
+            this.stripe = stripe;
+            this.sequence = sequence;
+            this.task = task;
+            this.onLost = onLost;
+        }
+
+        @Override
+        public void run() {
+            dequeued(this);
+            Long brokenUpTo = brokenKeys.get(key);
+            if (brokenUpTo != null) {
+                if (sequence <= brokenUpTo) {
+                    metricsService.incrementCounter(SKIPPED_COUNTER);
+                    return;
+                }
+                brokenKeys.remove(key, brokenUpTo);
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Error in dispatched task: key={}", key, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+        for (ThreadPoolExecutor stripe : stripes) {
+            try {
+                if (!stripe.awaitTermination(5, TimeUnit.SECONDS)) {
+                    stripe.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                stripe.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        lossNotifier.shutdown();
+    }
+}
@@ -29,6 +29,7 @@ public class RecoveryService {
     private final StreamChunkRepository streamChunkRepository;
     private final MetricsService metricsService;
     private final SimpleDistributedLockService lockService;
+    private final SessionLaneExecutor sessionLanes;
     
     // Optional: Kafka event publisher (null if Kafka is disabled)
     private final EventPublisher eventPublisher;
@@ -47,12 +48,14 @@ public class RecoveryService {
                           StreamChunkRepository streamChunkRepository,
                           MetricsService metricsService,
                           SimpleDistributedLockService lockService,
+                          SessionLaneExecutor sessionLanes,
                           @Autowired(required = false) EventPublisher eventPublisher) {
         this.streamCache = streamCache;
         this.messageRepository = messageRepository;
         this.streamChunkRepository = streamChunkRepository;
         this.metricsService = metricsService;
         this.lockService = lockService;
+        this.sessionLanes = sessionLanes;
         this.eventPublisher = eventPublisher;
     }
 
@@ -79,13 +82,23 @@ public class RecoveryService {
         }
 
         try {
-            // Acquire distributed lock to avoid race conditions
-            String lockKey = "recovery:lock:" + sessionId;
-            RecoveryResponse response = lockService.executeWithLock(
-                lockKey,
-                Duration.ofSeconds(30),
-                () -> executeRecovery(request, recoveryStart)
-            );
+            RecoveryResponse response;
+            if (sessionLanes.isPinned(sessionId)) {
+                // Session is streamed by this node: serialize on its lane, no lock needed
+                response = sessionLanes.call(
+                    sessionId,
+                    () -> executeRecovery(request, recoveryStart),
+                    Duration.ofSeconds(30)
+                );
+            } else {
+                // Owned elsewhere (or not at all): acquire distributed lock for cross-node contention
+                String lockKey = "recovery:lock:" + sessionId;
+                response = lockService.executeWithLock(
+                    lockKey,
+                    Duration.ofSeconds(30),
+                    () -> executeRecovery(request, recoveryStart)
+                );
+            }
 
             if (response == null) {
                 log.warn("Failed to acquire recovery lock: sessionId={}", sessionId);
@@ -480,11 +493,19 @@ public class RecoveryService {
     private Message reconstructMessageFromChunks(String messageId,
                                                  List<StreamChunk> chunks,
                                                  ChatSession session) {
-        // Sort and concatenate chunks
-        String content = chunks.stream()
+        // Sort and replay chunks: delta chunks append, full chunks replace
+        StringBuilder builder = new StringBuilder();
+        chunks.stream()
             .sorted(Comparator.comparingInt(StreamChunk::getIndex))
-            .map(StreamChunk::getContent)
-            .collect(Collectors.joining());
+            .forEach(chunk -> {
+                if (!chunk.isDelta()) {
+                    builder.setLength(0);
+                }
+                if (chunk.getContent() != null) {
+                    builder.append(chunk.getContent());
+                }
+            });
+        String content = builder.toString();
 
         return Message.builder()
             .id(messageId)
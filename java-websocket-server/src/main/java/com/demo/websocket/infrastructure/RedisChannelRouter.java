@@ -0,0 +1,187 @@
+package com.demo.websocket.infrastructure;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pattern-subscribed Redis channel router
+ *
+ * When enabled, the node PSUBSCRIBEs once to chat:stream:* and
+ * stream:channel:* and dispatches each message through a local routing
+ * table (channel -> listeners). Adding or removing a session is a map
+ * update, so the container's subscription set no longer changes on every
+ * connect. Messages for channels with no local route are dropped.
+ *
+ * When disabled, the router subscribes each routed channel on the listener
+ * container, and drops the subscription with the channel's last route. The
+ * subscribe/unsubscribe round-trips run under a per-channel lock, never
+ * inside a ConcurrentHashMap compute, so they only wait on the same channel.
+ *
+ * In both modes, delivery is handed to KeyedDispatchExecutor keyed by
+ * session, so one session's messages stay in order across its channels.
+ * If a message is lost to dispatch overflow, the channel's listeners are
+ * told through LossAwareListener so they can resync from the stream cache.
+ */
+@Component
+@Slf4j
+public class RedisChannelRouter implements MessageListener {
+
+    private static final String LEGACY_PREFIX = "chat:stream:";
+    private static final String FANOUT_PREFIX = "stream:channel:";
+    private static final List<PatternTopic> PATTERNS = List.of(
+            new PatternTopic(LEGACY_PREFIX + "*"),
+            new PatternTopic(FANOUT_PREFIX + "*"));
+
+    /**
+     * Route listener told when messages of its channel were lost to dispatch overflow
+     * Later messages of the session are skipped until this has been called
+     */
+    public interface LossAwareListener extends MessageListener {
+        void onMessagesLost(String channel);
+    }
+
+    private final RedisMessageListenerContainer listenerContainer;
+    private final KeyedDispatchExecutor dispatchExecutor;
+    private final boolean patternRouting;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    public RedisChannelRouter(RedisMessageListenerContainer listenerContainer,
+                              KeyedDispatchExecutor dispatchExecutor,
+                              @Value("${stream.pubsub.pattern-routing:false}") boolean patternRouting) {
+        this.listenerContainer = listenerContainer;
+        this.dispatchExecutor = dispatchExecutor;
+        this.patternRouting = patternRouting;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (patternRouting) {
+            listenerContainer.addMessageListener(this, PATTERNS);
+            log.info("Pattern routing enabled: patterns={}", PATTERNS);
+        }
+    }
+
+    public boolean isPatternRouting() {
+        return patternRouting;
+    }
+
+    /**
+     * Route messages on a channel to a listener
+     * The channel is subscribed with its first route, outside the map's bin lock
+     */
+    public void addRoute(String channel, MessageListener listener) {
+        while (true) {
+            Route route = routes.computeIfAbsent(channel, k -> new Route());
+            route.lock.lock();
+            try {
+                if (route.retired) {
+                    continue;  // Released concurrently: retry with a fresh route
+                }
+                if (!route.subscribed) {
+                    if (!patternRouting) {
+                        listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+                    }
+                    route.subscribed = true;
+                }
+                route.listeners.add(listener);
+                return;
+            } finally {
+                route.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stop routing messages on a channel to a listener
+     * The last route unsubscribes the channel before it leaves the map, so a
+     * concurrent addRoute for the same channel subscribes after it.
+     */
+    public void removeRoute(String channel, MessageListener listener) {
+        Route route = routes.get(channel);
+        if (route == null) {
+            return;
+        }
+        route.lock.lock();
+        try {
+            if (!route.listeners.remove(listener) || !route.listeners.isEmpty() || route.retired) {
+                return;
+            }
+            try {
+                if (route.subscribed && !patternRouting) {
+                    listenerContainer.removeMessageListener(this, new ChannelTopic(channel));
+                }
+            } finally {
+                route.retired = true;
+                routes.remove(channel, route);
+            }
+        } finally {
+            route.lock.unlock();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Route route = routes.get(channel);
+        if (route == null) {
+            return;
+        }
+        Set<MessageListener> listeners = route.listeners;
+        dispatchExecutor.dispatch(sessionKey(channel), () -> {
+            for (MessageListener listener : listeners) {
+                try {
+                    listener.onMessage(message, pattern);
+                } catch (Exception e) {
+                    log.error("Error dispatching routed message: channel={}", channel, e);
+                }
+            }
+        }, () -> {
+            for (MessageListener listener : listeners) {
+                if (listener instanceof LossAwareListener lossAware) {
+                    lossAware.onMessagesLost(channel);
+                } else {
+                    log.warn("Routed message lost, listener cannot resync: channel={}, listener={}",
+                            channel, listener.getClass().getSimpleName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Session ID of chat:stream:{id} or stream:channel:{id}:{event}
+     */
+    public static String sessionKey(String channel) {
+        if (channel.startsWith(LEGACY_PREFIX)) {
+            return channel.substring(LEGACY_PREFIX.length());
+        }
+        if (channel.startsWith(FANOUT_PREFIX)) {
+            int end = channel.lastIndexOf(':');
+            return end > FANOUT_PREFIX.length() ? channel.substring(FANOUT_PREFIX.length(), end) : channel;
+        }
+        return channel;
+    }
+
+    /**
+     * Listeners of one channel; subscription changes are serialized by its lock
+     */
+    private static final class Route {
+        final ReentrantLock lock = new ReentrantLock();
+        final Set<MessageListener> listeners = ConcurrentHashMap.newKeySet();
+        boolean subscribed;
+        boolean retired;
+    }
+}
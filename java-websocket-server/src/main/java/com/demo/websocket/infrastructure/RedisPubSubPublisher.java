@@ -5,11 +5,17 @@ import com.demo.websocket.domain.PubSubMessage;
 import com.demo.websocket.domain.StreamChunk;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 @Component
 @Slf4j
@@ -17,34 +23,43 @@ public class RedisPubSubPublisher {
 
     private final StringRedisTemplate redisTemplate;
     private final ObjectMapper objectMapper;
+    private final RedisStreamLog streamLog;
+    private final RedisChannelRouter channelRouter;
+
+    // One shared subscription per session, reference-counted by its listeners
+    private final Map<String, SessionSubscription> subscriptions = new ConcurrentHashMap<>();
 
     private static final String CHUNK_CHANNEL = "stream:channel:{sessionId}:chunk";
     private static final String COMPLETE_CHANNEL = "stream:channel:{sessionId}:complete";
     private static final String ERROR_CHANNEL = "stream:channel:{sessionId}:error";
 
     public RedisPubSubPublisher(StringRedisTemplate redisTemplate,
-                                ObjectMapper objectMapper) {
+                                ObjectMapper objectMapper,
+                                RedisStreamLog streamLog,
+                                RedisChannelRouter channelRouter) {
         this.redisTemplate = redisTemplate;
         this.objectMapper = objectMapper;
+        this.streamLog = streamLog;
+        this.channelRouter = channelRouter;
     }
 
     /**
      * Publish chunk to session-specific channel
      * Uses Redis PubSub for real-time delivery across nodes
+     * The payload is the envelope's cached encoding (chunk JSON embedded as-is)
      */
-    public void publishChunk(String sessionId, StreamChunk chunk) {
+    public void publishChunk(ChunkEnvelope envelope) {
+        String sessionId = envelope.getSessionId();
+        StreamChunk chunk = envelope.getChunk();
+        if (streamLog.isEnabled()) {
+            // Stream backend: the XADD in RedisStreamCache already fans the chunk out
+            return;
+        }
+
         String channel = CHUNK_CHANNEL.replace("{sessionId}", sessionId);
 
         try {
-            PubSubMessage message = PubSubMessage.builder()
-                    .type(PubSubMessage.Type.CHUNK)
-                    .sessionId(sessionId)
-                    .messageId(chunk.getMessageId())
-                    .data(chunk)
-                    .timestamp(Instant.now())
-                    .build();
-
-            String payload = objectMapper.writeValueAsString(message);
+            String payload = envelope.pubSubJson();
 
             Long subscribers = redisTemplate.convertAndSend(channel, payload);
 
@@ -76,6 +91,13 @@ public class RedisPubSubPublisher {
                     .timestamp(Instant.now())
                     .build();
 
+            if (streamLog.isEnabled()) {
+                streamLog.appendEvent(sessionId, PubSubMessage.Type.COMPLETE, message.getId(),
+                        objectMapper.writeValueAsString(message));
+                log.info("Appended complete event to stream log: sessionId={}", sessionId);
+                return;
+            }
+
             String payload = objectMapper.writeValueAsString(pubSubMessage);
             Long subscribers = redisTemplate.convertAndSend(channel, payload);
 
@@ -94,6 +116,12 @@ public class RedisPubSubPublisher {
         String channel = ERROR_CHANNEL.replace("{sessionId}", sessionId);
 
         try {
+            if (streamLog.isEnabled()) {
+                streamLog.appendEvent(sessionId, PubSubMessage.Type.ERROR, null, error);
+                log.warn("Appended error event to stream log: sessionId={}, error={}", sessionId, error);
+                return;
+            }
+
             PubSubMessage message = PubSubMessage.builder()
                     .type(PubSubMessage.Type.ERROR)
                     .sessionId(sessionId)
@@ -114,53 +142,145 @@ public class RedisPubSubPublisher {
     /**
      * Subscribe to session channels
      * Used for reconnection scenarios
+     *
+     * Listeners of a session share one subscription on the node's listener
+     * container (non-blocking, no dedicated connection); the channels are
+     * released when the last listener unsubscribes.
      */
     public void subscribe(String sessionId, PubSubListener listener) {
-        String chunkChannel = CHUNK_CHANNEL.replace("{sessionId}", sessionId);
-        String completeChannel = COMPLETE_CHANNEL.replace("{sessionId}", sessionId);
-        String errorChannel = ERROR_CHANNEL.replace("{sessionId}", sessionId);
+        while (true) {
+            SessionSubscription subscription = subscriptions.computeIfAbsent(sessionId, SessionSubscription::new);
+            subscription.lock.lock();
+            try {
+                if (subscription.closed) {
+                    continue;  // Released concurrently: retry with a fresh subscription
+                }
+                if (!subscription.opened) {
+                    subscription.open();
+                    subscription.opened = true;
+                }
+                subscription.listeners.add(listener);
+                break;
+            } finally {
+                subscription.lock.unlock();
+            }
+        }
+
+        log.info("Subscribed to channels for session: {}", sessionId);
+    }
+
+    /**
+     * Remove a listener; the session's channels are released with the last one
+     * Released before the subscription leaves the map, so a concurrent subscribe opens after it.
+     */
+    public void unsubscribe(String sessionId, PubSubListener listener) {
+        SessionSubscription subscription = subscriptions.get(sessionId);
+        if (subscription == null) {
+            return;
+        }
+        subscription.lock.lock();
+        try {
+            if (!subscription.listeners.remove(listener) || !subscription.listeners.isEmpty()
+                    || subscription.closed) {
+                return;
+            }
+            try {
+                if (subscription.opened) {
+                    subscription.close();
+                }
+            } finally {
+                subscription.closed = true;
+                subscriptions.remove(sessionId, subscription);
+            }
+            log.info("Unsubscribed from channels for session: {}", sessionId);
+        } finally {
+            subscription.lock.unlock();
+        }
+    }
+
+    /**
+     * Route a decoded PubSub message to the listener callbacks
+     */
+    private void dispatch(PubSubMessage pubSubMessage, Set<PubSubListener> listeners) {
+        switch (pubSubMessage.getType()) {
+            case CHUNK:
+                StreamChunk chunk = objectMapper.convertValue(
+                        pubSubMessage.getData(), StreamChunk.class);
+                listeners.forEach(listener -> listener.onChunk(chunk));
+                break;
+
+            case COMPLETE:
+                Message msg = objectMapper.convertValue(
+                        pubSubMessage.getData(), Message.class);
+                listeners.forEach(listener -> listener.onComplete(msg));
+                break;
+
+            case ERROR:
+                listeners.forEach(listener -> listener.onError(pubSubMessage.getError()));
+                break;
+        }
+
+        log.debug("Received PubSub message: type={}, sessionId={}, listeners={}",
+                pubSubMessage.getType(), pubSubMessage.getSessionId(), listeners.size());
+    }
 
-        MessageListener messageListener = (message, pattern) -> {
+    /**
+     * Shared subscription for one session's channels
+     * open/close make Redis round-trips; they run under the subscription's lock,
+     * not inside a map compute, so only callers for the same session wait.
+     */
+    private final class SessionSubscription implements RedisChannelRouter.LossAwareListener {
+        final String sessionId;
+        final ReentrantLock lock = new ReentrantLock();
+        final Set<PubSubListener> listeners = ConcurrentHashMap.newKeySet();
+        boolean opened;
+        boolean closed;
+        final List<String> channels;
+        final Consumer<PubSubMessage> streamLogListener = message -> dispatch(message, listeners);
+
+        SessionSubscription(String sessionId) {
+            this.sessionId = sessionId;
+            this.channels = List.of(
+                    CHUNK_CHANNEL.replace("{sessionId}", sessionId),
+                    COMPLETE_CHANNEL.replace("{sessionId}", sessionId),
+                    ERROR_CHANNEL.replace("{sessionId}", sessionId));
+        }
+
+        void open() {
+            if (streamLog.isEnabled()) {
+                streamLog.subscribe(sessionId, streamLogListener);
+            } else {
+                channels.forEach(channel -> channelRouter.addRoute(channel, this));
+            }
+        }
+
+        void close() {
+            if (streamLog.isEnabled()) {
+                streamLog.unsubscribe(sessionId, streamLogListener);
+            } else {
+                channels.forEach(channel -> channelRouter.removeRoute(channel, this));
+            }
+        }
+
+        @Override
+        public void onMessage(org.springframework.data.redis.connection.Message message, byte[] pattern) {
             try {
-                String payload = new String(message.getBody());
+                String payload = new String(message.getBody(), StandardCharsets.UTF_8);
                 PubSubMessage pubSubMessage = objectMapper.readValue(payload,
                         PubSubMessage.class);
 
-                switch (pubSubMessage.getType()) {
-                    case CHUNK:
-                        StreamChunk chunk = objectMapper.convertValue(
-                                pubSubMessage.getData(), StreamChunk.class);
-                        listener.onChunk(chunk);
-                        break;
-
-                    case COMPLETE:
-                        Message msg = objectMapper.convertValue(
-                                pubSubMessage.getData(), Message.class);
-                        listener.onComplete(msg);
-                        break;
-
-                    case ERROR:
-                        listener.onError(pubSubMessage.getError());
-                        break;
-                }
-
-                log.debug("Received PubSub message: type={}, sessionId={}",
-                        pubSubMessage.getType(), sessionId);
+                dispatch(pubSubMessage, listeners);
 
             } catch (Exception e) {
                 log.error("Error processing PubSub message", e);
-                listener.onError("Message processing failed: " + e.getMessage());
+                listeners.forEach(listener -> listener.onError("Message processing failed: " + e.getMessage()));
             }
-        };
-
-        // Subscribe to all channels for this session
-        redisTemplate.getConnectionFactory()
-                .getConnection()
-                .subscribe(messageListener,
-                        chunkChannel.getBytes(),
-                        completeChannel.getBytes(),
-                        errorChannel.getBytes());
+        }
 
-        log.info("Subscribed to channels for session: {}", sessionId);
+        @Override
+        public void onMessagesLost(String channel) {
+            log.warn("Stream messages lost to dispatch overflow: sessionId={}, channel={}", sessionId, channel);
+            listeners.forEach(listener -> listener.onError("Stream messages lost, resync required"));
+        }
     }
 }
@@ -5,18 +5,25 @@ import com.demo.websocket.domain.StreamChunk;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PreDestroy;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 @Component
@@ -24,25 +31,118 @@ import java.util.stream.Collectors;
 public class RedisStreamCache {
 
     private final StringRedisTemplate redisTemplate;
-    private final RedissonClient redissonClient;
     private final ObjectMapper objectMapper;
+    private final RedisStreamLog streamLog;
 
     // Key patterns
     private static final String SESSION_KEY = "stream:session:{sessionId}";
     private static final String CHUNKS_KEY = "stream:chunks:{messageId}";
     private static final String METADATA_KEY = "stream:metadata:{messageId}";
-    private static final String LOCK_KEY = "stream:lock:{messageId}";
 
     // TTL configurations
     private static final Duration SESSION_TTL = Duration.ofMinutes(10);
     private static final Duration CHUNKS_TTL = Duration.ofMinutes(5);
 
+    /**
+     * Idempotent batch append + session update in one round-trip
+     * KEYS: chunks list, last-index counter, session hash ("" to skip), trimmed-prefix counter
+     * ARGV: chunks ttl, session ttl, n, [index, chunk json] * n, [field, value]...
+     * Chunks with index below the running size (trimmed prefix + list length) are skipped as duplicates
+     * Returns expected index of the first chunk (size before push)
+     */
+    private static final RedisScript<Long> APPEND_CHUNKS_SCRIPT = new DefaultRedisScript<>(
+            "local n = tonumber(ARGV[3])\n" +
+            "local fields = 4 + 2 * n\n" +
+            "if #ARGV >= fields and KEYS[3] ~= '' then\n" +
+            "  redis.call('HSET', KEYS[3], unpack(ARGV, fields))\n" +
+            "  redis.call('EXPIRE', KEYS[3], ARGV[2])\n" +
+            "end\n" +
+            "local size = redis.call('LLEN', KEYS[1]) + tonumber(redis.call('GET', KEYS[4]) or '0')\n" +
+            "local first = size\n" +
+            "for i = 0, n - 1 do\n" +
+            "  if tonumber(ARGV[4 + 2 * i]) >= size then\n" +
+            "    redis.call('RPUSH', KEYS[1], ARGV[5 + 2 * i])\n" +
+            "    size = size + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "if size > first then\n" +
+            "  redis.call('EXPIRE', KEYS[1], ARGV[1])\n" +
+            "  redis.call('INCRBY', KEYS[2], size - first)\n" +
+            "  redis.call('EXPIRE', KEYS[2], ARGV[1])\n" +
+            "  redis.call('EXPIRE', KEYS[4], ARGV[1])\n" +
+            "end\n" +
+            "return first",
+            Long.class);
+
+    /**
+     * Chunk range read that accounts for an acked prefix trimmed off the list
+     * KEYS: chunks list, trimmed-prefix counter
+     * ARGV: from index, to index (exclusive)
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})  // A class literal can't carry the element type; LRANGE replies are strings
+    private static final RedisScript<List<String>> RANGE_CHUNKS_SCRIPT = new DefaultRedisScript<>(
+            "local base = tonumber(redis.call('GET', KEYS[2]) or '0')\n" +
+            "local from = math.max(tonumber(ARGV[1]) - base, 0)\n" +
+            "local to = tonumber(ARGV[2]) - 1 - base\n" +
+            "if to < from then return {} end\n" +
+            "return redis.call('LRANGE', KEYS[1], from, to)",
+            (Class<List<String>>) (Class) List.class);
+
+    /**
+     * Drop chunks every client has acknowledged from the head of the list
+     * KEYS: chunks list, trimmed-prefix counter
+     * ARGV: first unacked index, ttl
+     * The head is trimmed by the stored chunk index, not by list position, so a
+     * list whose indices do not start at 0 never loses an unacked chunk
+     * Returns the number of chunks trimmed
+     */
+    private static final RedisScript<Long> TRIM_CHUNKS_SCRIPT = new DefaultRedisScript<>(
+            "local base = tonumber(redis.call('GET', KEYS[2]) or '0')\n" +
+            "local first = tonumber(ARGV[1])\n" +
+            "local candidates = math.min(first - base, redis.call('LLEN', KEYS[1]))\n" +
+            "if candidates <= 0 then return 0 end\n" +
+            "local n = 0\n" +
+            "for _, json in ipairs(redis.call('LRANGE', KEYS[1], 0, candidates - 1)) do\n" +
+            "  if tonumber(cjson.decode(json)['index']) >= first then break end\n" +
+            "  n = n + 1\n" +
+            "end\n" +
+            "if n == 0 then return 0 end\n" +
+            "redis.call('LTRIM', KEYS[1], n, -1)\n" +
+            "redis.call('SET', KEYS[2], base + n, 'EX', ARGV[2])\n" +
+            "return n",
+            Long.class);
+
+    // Write-behind buffers per messageId (only used when write-behind is enabled)
+    private final Map<String, WriteBuffer> writeBuffers = new ConcurrentHashMap<>();
+    private final Map<String, WriteBuffer> writeBuffersBySession = new ConcurrentHashMap<>();
+    private final boolean writeBehindEnabled;
+    private final int maxBatchChunks;
+    private final int maxBufferedChunks;
+    private final ScheduledExecutorService flushExecutor;
+
     public RedisStreamCache(StringRedisTemplate redisTemplate,
-                           RedissonClient redissonClient,
-                           ObjectMapper objectMapper) {
+                           ObjectMapper objectMapper,
+                           RedisStreamLog streamLog,
+                           @Value("${stream.write-behind.enabled:false}") boolean writeBehindEnabled,
+                           @Value("${stream.write-behind.flush-interval-ms:50}") long flushIntervalMs,
+                           @Value("${stream.write-behind.max-batch-chunks:32}") int maxBatchChunks,
+                           @Value("${stream.write-behind.max-buffered-chunks:1000}") int maxBufferedChunks) {
         this.redisTemplate = redisTemplate;
-        this.redissonClient = redissonClient;
         this.objectMapper = objectMapper;
+        this.streamLog = streamLog;
+        this.writeBehindEnabled = writeBehindEnabled;
+        this.maxBatchChunks = maxBatchChunks;
+        this.maxBufferedChunks = maxBufferedChunks;
+
+        if (writeBehindEnabled) {
+            this.flushExecutor = Executors.newSingleThreadScheduledExecutor();
+            flushExecutor.scheduleAtFixedRate(this::flushAll,
+                    flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            log.info("Chunk write-behind enabled: flushInterval={}ms, maxBatch={}, maxBuffered={}",
+                    flushIntervalMs, maxBatchChunks, maxBufferedChunks);
+        } else {
+            this.flushExecutor = null;
+        }
     }
 
     /**
@@ -76,98 +176,218 @@ public class RedisStreamCache {
     /**
      * Append chunk to stream using Redis List
      * Optimized for sequential writes and range reads
-     * 
-     * This method is designed to be resilient to:
-     * - Race conditions in multi-node deployments
-     * - Duplicate chunk submissions
-     * - Temporary Redis connectivity issues
-     * - Lock contention
      */
     public void appendChunk(String messageId, StreamChunk chunk) {
-        String key = CHUNKS_KEY.replace("{messageId}", messageId);
-        RLock lock = null;
+        appendChunk(messageId, ChunkEnvelope.of(objectMapper, null, null, chunk), null);
+    }
 
+    /**
+     * Append chunk and update session hash in a single round-trip
+     *
+     * The index check, RPUSH, TTL refresh, last-index bump and session HSET
+     * all run inside one Lua script, so no distributed lock is needed:
+     * - Duplicate chunks (index below list size) are skipped server-side
+     * - Gaps are appended anyway and left for recovery to handle
+     * - Redis errors are logged, streaming continues over WebSocket
+     *
+     * With write-behind enabled the chunk is only buffered here and written
+     * in a batch every flush interval or every max-batch-chunks chunks.
+     * The stored JSON is the envelope's cached chunk encoding.
+     */
+    public void appendChunk(String messageId, ChunkEnvelope envelope, ChatSession session) {
+        StreamChunk chunk = envelope.getChunk();
+        String chunkJson;
         try {
-            // Use distributed lock to ensure chunk ordering
-            lock = redissonClient.getLock(LOCK_KEY.replace("{messageId}", messageId));
-
-            // Try to acquire lock with timeout
-            boolean lockAcquired = false;
-            try {
-                lockAcquired = lock.tryLock(100, 5000, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.warn("Interrupted while acquiring lock for chunk append: messageId={}, index={}", 
-                        messageId, chunk.getIndex());
-                return; // Gracefully skip this chunk, will be handled by recovery
-            }
-
-            if (!lockAcquired) {
-                // Another node is currently writing; treat as race condition and skip
-                log.debug("Lock acquisition timeout, assuming concurrent write: messageId={}, index={}", 
-                        messageId, chunk.getIndex());
-                return; // Gracefully skip, recovery will handle if truly missing
-            }
-
-            try {
-                // Idempotency check - verify expected index matches current list size
-                Long currentSize = redisTemplate.opsForList().size(key);
-                int expectedIndex = (currentSize != null ? currentSize.intValue() : 0);
-                
-                if (chunk.getIndex() < expectedIndex) {
-                    // Duplicate chunk - already appended
-                    log.debug("Skipping duplicate chunk: messageId={}, chunkIndex={}, currentSize={}", 
-                             messageId, chunk.getIndex(), currentSize);
-                    return;
-                } else if (chunk.getIndex() > expectedIndex) {
-                    // Gap detected - log warning but continue
-                    log.warn("Chunk gap detected: messageId={}, expectedIndex={}, actualIndex={}, currentSize={} - Recovery will handle", 
-                             messageId, expectedIndex, chunk.getIndex(), currentSize);
-                    // Don't return - still try to append, recovery will fill gaps
-                }
+            chunkJson = envelope.chunkJson();
+        } catch (JsonProcessingException e) {
+            // Serialization error - log but don't throw
+            log.error("Failed to serialize chunk (skipping): messageId={}, index={}",
+                    messageId, chunk.getIndex(), e);
+            // Gracefully skip - the chunk content is already sent via WebSocket
+            return;
+        }
 
-                // Serialize chunk
-                String chunkJson = objectMapper.writeValueAsString(chunk);
+        List<String> sessionFields = new ArrayList<>();
+        if (session != null) {
+            addSessionFields(sessionFields, session);
+        }
 
-                // Append to list (right push for sequential order)
-                redisTemplate.opsForList().rightPush(key, chunkJson);
+        if (!writeBehindEnabled) {
+            writeChunks(messageId, session != null ? session.getSessionId() : null,
+                    List.of(chunk), List.of(chunkJson), sessionFields);
+            return;
+        }
 
-                // Set/update TTL
-                redisTemplate.expire(key, CHUNKS_TTL);
+        String sessionId = session != null ? session.getSessionId() : null;
+        WriteBuffer buffer = writeBuffers.compute(messageId, (k, existing) -> {
+            WriteBuffer target = existing != null ? existing : new WriteBuffer(messageId, sessionId);
+            target.add(chunk, chunkJson, sessionFields);
+            if (sessionId != null) {
+                // Indexed inside compute so it stays atomic with flush dropping the buffer
+                writeBuffersBySession.put(sessionId, target);
+            }
+            return target;
+        });
+
+        int pending = buffer.pendingCount();
+        if (pending >= maxBufferedChunks) {
+            // Queue is full - flush on the caller thread instead of growing further
+            log.warn("Write-behind buffer full, flushing inline: messageId={}, pending={}",
+                    messageId, pending);
+            flush(buffer);
+        } else if (pending >= maxBatchChunks && buffer.flushRequested.compareAndSet(false, true)) {
+            flushExecutor.execute(() -> flush(buffer));
+        }
+    }
 
-                // Update chunk index for verification
-                String metaKey = METADATA_KEY.replace("{messageId}", messageId);
-                redisTemplate.opsForValue().increment(metaKey + ":lastIndex");
+    /**
+     * Write a batch of chunks (and optional session fields) with one script call
+     */
+    private void writeChunks(String messageId,
+                             String sessionId,
+                             List<StreamChunk> chunks,
+                             List<String> chunkJsons,
+                             List<String> sessionFields) {
+        String key = CHUNKS_KEY.replace("{messageId}", messageId);
+        String metaKey = METADATA_KEY.replace("{messageId}", messageId);
+        String sessionKey = sessionId != null && !sessionFields.isEmpty()
+                ? SESSION_KEY.replace("{sessionId}", sessionId)
+                : "";
+        int firstIndex = chunks.isEmpty() ? 0 : chunks.get(0).getIndex();
 
-                log.debug("Successfully appended chunk: messageId={}, index={}, size={}", 
-                        messageId, chunk.getIndex(), chunk.getContent().length());
+        try {
+            if (streamLog.isEnabled()) {
+                writeChunksToLog(messageId, sessionId, chunks, chunkJsons, sessionKey, sessionFields);
+                return;
+            }
 
-            } finally {
-                // Always unlock if we acquired the lock
-                if (lock.isHeldByCurrentThread()) {
-                    lock.unlock();
-                }
+            List<String> args = new ArrayList<>(3 + chunks.size() * 2 + sessionFields.size());
+            args.add(String.valueOf(CHUNKS_TTL.getSeconds()));
+            args.add(String.valueOf(SESSION_TTL.getSeconds()));
+            args.add(String.valueOf(chunks.size()));
+            for (int i = 0; i < chunks.size(); i++) {
+                args.add(String.valueOf(chunks.get(i).getIndex()));
+                args.add(chunkJsons.get(i));
+            }
+            args.addAll(sessionFields);
+
+            Long expectedIndex = redisTemplate.execute(APPEND_CHUNKS_SCRIPT,
+                    List.of(key, metaKey + ":lastIndex", sessionKey, metaKey + ":base"),
+                    args.toArray());
+
+            if (expectedIndex == null) {
+                log.warn("Append script returned no result: messageId={}, index={}",
+                        messageId, firstIndex);
+            } else if (firstIndex < expectedIndex) {
+                log.debug("Skipped duplicate chunks: messageId={}, firstIndex={}, expectedIndex={}",
+                        messageId, firstIndex, expectedIndex);
+            } else if (firstIndex > expectedIndex) {
+                log.warn("Chunk gap detected: messageId={}, expectedIndex={}, actualIndex={} - Recovery will handle",
+                        messageId, expectedIndex, firstIndex);
+            } else {
+                log.debug("Successfully appended chunks: messageId={}, firstIndex={}, count={}",
+                        messageId, firstIndex, chunks.size());
             }
 
-        } catch (JsonProcessingException e) {
-            // Serialization error - log but don't throw
-            log.error("Failed to serialize chunk (skipping): messageId={}, index={}", 
-                    messageId, chunk.getIndex(), e);
-            // Gracefully skip - the chunk content is already sent via WebSocket
-            
         } catch (Exception e) {
             // Catch-all for Redis connectivity issues, etc.
             log.error("Error appending chunk to cache (continuing): messageId={}, index={}, error={}",
-                    messageId, chunk.getIndex(), e.getMessage());
+                    messageId, firstIndex, e.getMessage());
             // Don't throw - streaming can continue even if cache append fails
             // The chunk was already sent to the client via WebSocket
             // Recovery mechanism can handle gaps if needed
         }
     }
 
+    /**
+     * Stream backend: XADD the batch to the session log (storage + fan-out)
+     */
+    private void writeChunksToLog(String messageId,
+                                  String sessionId,
+                                  List<StreamChunk> chunks,
+                                  List<String> chunkJsons,
+                                  String sessionKey,
+                                  List<String> sessionFields) {
+        if (sessionId == null) {
+            // Without a session there is no log to append to, and re-adding old chunks
+            // would fan them out again to live subscribers (e.g. recovery write-back)
+            log.debug("Skipping stream log append without session: messageId={}", messageId);
+            return;
+        }
+
+        Long expectedIndex = streamLog.appendChunks(sessionId, messageId, chunks, chunkJsons,
+                sessionKey, sessionFields, CHUNKS_TTL, SESSION_TTL);
+        int firstIndex = chunks.isEmpty() ? 0 : chunks.get(0).getIndex();
+        if (expectedIndex != null && firstIndex > expectedIndex) {
+            log.warn("Chunk gap detected: messageId={}, expectedIndex={}, actualIndex={} - Recovery will handle",
+                    messageId, expectedIndex, firstIndex);
+        }
+    }
+
+    /**
+     * Flush one write-behind buffer
+     * Flushes of the same buffer are serialized so batches land in order
+     */
+    private void flush(WriteBuffer buffer) {
+        buffer.flushLock.lock();
+        try {
+            buffer.flushRequested.set(false);
+            WriteBuffer.Batch batch = buffer.drain();
+            if (batch != null) {
+                writeChunks(buffer.messageId, buffer.sessionId,
+                        batch.chunks(), batch.chunkJsons(), batch.sessionFields());
+            }
+            buffer.clearInFlight();
+
+            // Drop idle buffers; compute keeps this atomic with concurrent appends,
+            // and a buffer still holding chunks stays visible to getSession
+            writeBuffers.computeIfPresent(buffer.messageId, (k, current) -> {
+                if (current != buffer || !buffer.isEmpty()) {
+                    return current;
+                }
+                if (buffer.sessionId != null) {
+                    writeBuffersBySession.remove(buffer.sessionId, buffer);
+                }
+                return null;
+            });
+        } finally {
+            buffer.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Periodic flush of all buffered streams
+     */
+    private void flushAll() {
+        try {
+            writeBuffers.values().forEach(this::flush);
+        } catch (Exception e) {
+            log.error("Error during write-behind flush", e);
+        }
+    }
+
+    /**
+     * Flush buffered chunks for a message before reading or completing it
+     */
+    private void flushMessage(String messageId) {
+        WriteBuffer buffer = writeBuffers.get(messageId);
+        if (buffer != null) {
+            flush(buffer);
+        }
+    }
+
+    /**
+     * Chunks not yet visible in Redis (pending + in-flight), ordered by index
+     */
+    private List<StreamChunk> bufferedChunks(String messageId) {
+        WriteBuffer buffer = writeBuffers.get(messageId);
+        return buffer != null ? buffer.snapshot() : Collections.emptyList();
+    }
+
     /**
      * Get chunks by range using Redis LRANGE
      * Optimized for recovery scenarios
+     * Chunks still held in the local write-behind buffer are merged in
      */
     public List<StreamChunk> getChunks(String messageId, int fromIndex, int toIndex) {
         String key = CHUNKS_KEY.replace("{messageId}", messageId);
@@ -175,17 +395,19 @@ public class RedisStreamCache {
         try {
             Instant start = Instant.now();
 
-            // Redis LRANGE is 0-indexed, inclusive on both ends
-            List<String> chunkJsons = redisTemplate.opsForList()
-                    .range(key, fromIndex, toIndex - 1);
+            // Snapshot the buffer before reading Redis so a concurrent flush can't hide chunks
+            List<StreamChunk> buffered = bufferedChunks(messageId);
 
-            if (chunkJsons == null || chunkJsons.isEmpty()) {
-                log.warn("No chunks found: messageId={}, range=[{},{})",
-                        messageId, fromIndex, toIndex);
-                return Collections.emptyList();
-            }
+            // Chunk index = list index + acked prefix trimmed off the list
+            List<String> chunkJsons = streamLog.isEnabled()
+                    ? null
+                    : redisTemplate.execute(RANGE_CHUNKS_SCRIPT,
+                            List.of(key, METADATA_KEY.replace("{messageId}", messageId) + ":base"),
+                            String.valueOf(fromIndex), String.valueOf(toIndex));
 
-            List<StreamChunk> chunks = chunkJsons.stream()
+            List<StreamChunk> chunks = streamLog.isEnabled()
+                    ? new ArrayList<>(streamLog.readChunks(messageId, fromIndex, toIndex))
+                    : chunkJsons == null ? new ArrayList<>() : chunkJsons.stream()
                     .map(json -> {
                         try {
                             return objectMapper.readValue(json, StreamChunk.class);
@@ -197,6 +419,16 @@ public class RedisStreamCache {
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList());
 
+            if (!buffered.isEmpty()) {
+                chunks = mergeBuffered(chunks, buffered, fromIndex, toIndex);
+            }
+
+            if (chunks.isEmpty()) {
+                log.warn("No chunks found: messageId={}, range=[{},{})",
+                        messageId, fromIndex, toIndex);
+                return Collections.emptyList();
+            }
+
             Duration latency = Duration.between(start, Instant.now());
             log.debug("Retrieved {} chunks: messageId={}, range=[{},{}), latency={}ms",
                     chunks.size(), messageId, fromIndex, toIndex, latency.toMillis());
@@ -216,12 +448,24 @@ public class RedisStreamCache {
         String key = CHUNKS_KEY.replace("{messageId}", messageId);
 
         try {
-            Long size = redisTemplate.opsForList().size(key);
-            if (size == null || size == 0) {
+            List<StreamChunk> buffered = bufferedChunks(messageId);
+            if (!streamLog.isEnabled() && trimmedChunks(messageId) > 0) {
+                // Acked prefix already trimmed; callers fall back to the stored message
+                log.debug("Chunks of messageId={} are trimmed, no full copy in cache", messageId);
+                return Collections.emptyList();
+            }
+            Long size = streamLog.isEnabled()
+                    ? Long.valueOf(streamLog.nextIndex(messageId))
+                    : redisTemplate.opsForList().size(key);
+            int total = size != null ? size.intValue() : 0;
+            if (!buffered.isEmpty()) {
+                total = Math.max(total, buffered.get(buffered.size() - 1).getIndex() + 1);
+            }
+            if (total == 0) {
                 return Collections.emptyList();
             }
 
-            return getChunks(messageId, 0, size.intValue());
+            return getChunks(messageId, 0, total);
 
         } catch (Exception e) {
             log.error("Failed to get all chunks: messageId={}", messageId, e);
@@ -229,15 +473,69 @@ public class RedisStreamCache {
         }
     }
 
+    /**
+     * Trim the chunks of a message below the first unacknowledged index
+     * Only the list backend is trimmed; the stream log is bounded by its MAXLEN
+     */
+    public void trimAcked(String messageId, int firstUnackedIndex) {
+        if (streamLog.isEnabled() || firstUnackedIndex <= 0) {
+            return;
+        }
+        // Never trim chunks that only exist in the local write-behind buffer
+        flushMessage(messageId);
+
+        try {
+            Long trimmed = redisTemplate.execute(TRIM_CHUNKS_SCRIPT,
+                    List.of(CHUNKS_KEY.replace("{messageId}", messageId),
+                            METADATA_KEY.replace("{messageId}", messageId) + ":base"),
+                    String.valueOf(firstUnackedIndex), String.valueOf(CHUNKS_TTL.getSeconds()));
+            if (trimmed != null && trimmed > 0) {
+                log.debug("Trimmed {} acked chunks: messageId={}, firstUnacked={}",
+                        trimmed, messageId, firstUnackedIndex);
+            }
+        } catch (Exception e) {
+            log.error("Failed to trim acked chunks: messageId={}, error={}", messageId, e.getMessage());
+        }
+    }
+
+    private long trimmedChunks(String messageId) {
+        String base = redisTemplate.opsForValue().get(METADATA_KEY.replace("{messageId}", messageId) + ":base");
+        return base != null ? Long.parseLong(base) : 0;
+    }
+
+    /**
+     * Merge Redis chunks with locally buffered ones, deduplicated by index
+     */
+    private List<StreamChunk> mergeBuffered(List<StreamChunk> stored,
+                                            List<StreamChunk> buffered,
+                                            int fromIndex,
+                                            int toIndex) {
+        TreeMap<Integer, StreamChunk> byIndex = new TreeMap<>();
+        stored.forEach(chunk -> byIndex.put(chunk.getIndex(), chunk));
+        buffered.stream()
+                .filter(chunk -> chunk.getIndex() >= fromIndex && chunk.getIndex() < toIndex)
+                .forEach(chunk -> byIndex.putIfAbsent(chunk.getIndex(), chunk));
+        return new ArrayList<>(byIndex.values());
+    }
+
     /**
      * Mark stream as complete and set TTL
      * Uses Redis MULTI/EXEC for atomicity
      */
     public void markComplete(String messageId, Duration ttl) {
+        // Buffered chunks must land before the final TTL is applied
+        flushMessage(messageId);
+
+        if (streamLog.isEnabled()) {
+            streamLog.expireMessage(messageId, ttl);
+        }
+
         try {
             redisTemplate.execute(new SessionCallback<Void>() {
                 @Override
-                public Void execute(RedisOperations operations) throws DataAccessException {
+                @SuppressWarnings("unchecked")  // Bound to redisTemplate, whose keys and values are strings
+                public <K, V> Void execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                    RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
                     operations.multi();
 
                     // Update metadata
@@ -250,6 +548,7 @@ public class RedisStreamCache {
                     // Update chunks TTL
                     String chunksKey = CHUNKS_KEY.replace("{messageId}", messageId);
                     operations.expire(chunksKey, ttl);
+                    operations.expire(metaKey + ":base", ttl);
 
                     operations.exec();
                     return null;
@@ -267,18 +566,20 @@ public class RedisStreamCache {
 
     /**
      * Update session in cache
+     * Single HSET with all changed fields
      */
     public void updateSession(ChatSession session) {
         String key = SESSION_KEY.replace("{sessionId}", session.getSessionId());
 
         try {
-            redisTemplate.opsForHash().put(key, "status", session.getStatus().name());
-            redisTemplate.opsForHash().put(key, "totalChunks",
-                    String.valueOf(session.getTotalChunks()));
-            if (session.getLastActivityTime() != null) {
-                redisTemplate.opsForHash().put(key, "lastActivityTime",
-                        session.getLastActivityTime().toString());
+            List<String> fields = new ArrayList<>();
+            addSessionFields(fields, session);
+
+            Map<String, String> updates = new HashMap<>();
+            for (int i = 0; i < fields.size(); i += 2) {
+                updates.put(fields.get(i), fields.get(i + 1));
             }
+            redisTemplate.opsForHash().putAll(key, updates);
 
             log.debug("Updated session in cache: sessionId={}", session.getSessionId());
 
@@ -287,6 +588,24 @@ public class RedisStreamCache {
         }
     }
 
+    /**
+     * Flatten mutable session fields into HSET field/value pairs
+     */
+    private void addSessionFields(List<String> fields, ChatSession session) {
+        fields.add("status");
+        fields.add(session.getStatus().name());
+        fields.add("totalChunks");
+        fields.add(String.valueOf(session.getTotalChunks()));
+        if (session.getMessageId() != null && !session.getMessageId().isEmpty()) {
+            fields.add("messageId");
+            fields.add(session.getMessageId());
+        }
+        if (session.getLastActivityTime() != null) {
+            fields.add("lastActivityTime");
+            fields.add(session.getLastActivityTime().toString());
+        }
+    }
+
     /**
      * Get session from cache
      */
@@ -294,7 +613,16 @@ public class RedisStreamCache {
         String key = SESSION_KEY.replace("{sessionId}", sessionId);
 
         try {
-            Map<Object, Object> sessionData = redisTemplate.opsForHash().entries(key);
+            Map<Object, Object> sessionData = new HashMap<>(redisTemplate.opsForHash().entries(key));
+
+            // Overlay session fields that are still waiting in the write-behind buffer
+            WriteBuffer buffer = writeBuffersBySession.get(sessionId);
+            if (buffer != null && !sessionData.isEmpty()) {
+                List<String> fields = buffer.latestSessionFields();
+                for (int i = 0; i + 1 < fields.size(); i += 2) {
+                    sessionData.put(fields.get(i), fields.get(i + 1));
+                }
+            }
 
             if (sessionData.isEmpty()) {
                 return Optional.empty();
@@ -322,4 +650,93 @@ public class RedisStreamCache {
             return Optional.empty();
         }
     }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushExecutor == null) {
+            return;
+        }
+        log.info("Flushing write-behind buffers before shutdown...");
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                flushExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flushExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    /**
+     * Per-message write-behind buffer
+     * Chunks move pending -> in-flight -> Redis; reads see both local stages
+     */
+    private static class WriteBuffer {
+        final String messageId;
+        final String sessionId;
+        final ReentrantLock flushLock = new ReentrantLock();
+        final AtomicBoolean flushRequested = new AtomicBoolean();
+
+        private List<StreamChunk> pendingChunks = new ArrayList<>();
+        private List<String> pendingJsons = new ArrayList<>();
+        private List<StreamChunk> inFlightChunks = Collections.emptyList();
+        private List<String> latestSessionFields = Collections.emptyList();
+        private boolean sessionDirty;
+
+        WriteBuffer(String messageId, String sessionId) {
+            this.messageId = messageId;
+            this.sessionId = sessionId;
+        }
+
+        synchronized void add(StreamChunk chunk, String json, List<String> sessionFields) {
+            pendingChunks.add(chunk);
+            pendingJsons.add(json);
+            if (!sessionFields.isEmpty()) {
+                latestSessionFields = sessionFields;
+                sessionDirty = true;
+            }
+        }
+
+        synchronized int pendingCount() {
+            return pendingChunks.size();
+        }
+
+        synchronized Batch drain() {
+            if (pendingChunks.isEmpty() && !sessionDirty) {
+                return null;
+            }
+            Batch batch = new Batch(pendingChunks, pendingJsons,
+                    sessionDirty ? latestSessionFields : Collections.emptyList());
+            inFlightChunks = pendingChunks;
+            pendingChunks = new ArrayList<>();
+            pendingJsons = new ArrayList<>();
+            sessionDirty = false;
+            return batch;
+        }
+
+        synchronized void clearInFlight() {
+            inFlightChunks = Collections.emptyList();
+        }
+
+        synchronized boolean isEmpty() {
+            return pendingChunks.isEmpty() && inFlightChunks.isEmpty() && !sessionDirty;
+        }
+
+        synchronized List<StreamChunk> snapshot() {
+            List<StreamChunk> all = new ArrayList<>(inFlightChunks.size() + pendingChunks.size());
+            all.addAll(inFlightChunks);
+            all.addAll(pendingChunks);
+            all.sort(Comparator.comparingInt(StreamChunk::getIndex));
+            return all;
+        }
+
+        synchronized List<String> latestSessionFields() {
+            return latestSessionFields;
+        }
+
+        record Batch(List<StreamChunk> chunks, List<String> chunkJsons, List<String> sessionFields) {
+        }
+    }
 }
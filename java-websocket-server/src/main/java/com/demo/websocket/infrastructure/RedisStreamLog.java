@@ -0,0 +1,509 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.domain.Message;
+import com.demo.websocket.domain.PubSubMessage;
+import com.demo.websocket.domain.StreamChunk;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.DefaultStringRedisConnection;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Redis Streams backend for the chunk log and cross-node fan-out
+ *
+ * One stream per chat session (stream:log:{sessionId}) holds CHUNK, COMPLETE
+ * and ERROR entries in order:
+ * - XADD per chunk replaces RPUSH to the chunk list + PUBLISH to the chunk channel
+ * - XRANGE from the message's first entry serves recovery
+ * - A single reader thread per node does a blocking multi-key XREAD from the
+ *   last seen ID of every subscribed session, so delivery is gapless
+ * - The reader holds its own connection, and subscription changes XADD to a
+ *   per-node wake-up stream that is part of the XREAD, so a new session is
+ *   read immediately instead of after the current block period
+ *
+ * Enable with: stream.cache-backend=stream
+ */
+@Component
+@Slf4j
+public class RedisStreamLog {
+
+    private static final String LOG_KEY = "stream:log:{sessionId}";
+    private static final String MESSAGE_LOG_KEY = "stream:metadata:{messageId}:log";
+    private static final String NEXT_INDEX_KEY = "stream:metadata:{messageId}:lastIndex";
+
+    // Per-node stream read alongside the session logs; an XADD here ends the current block
+    private static final String WAKEUP_KEY = "stream:wakeup:{nodeId}";
+
+    // Entry fields
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_MESSAGE_ID = "messageId";
+    private static final String FIELD_INDEX = "index";
+    private static final String FIELD_DATA = "data";
+
+    /**
+     * Idempotent batch XADD + session update in one round-trip
+     * KEYS: session log, next-index counter, message->log hash, session hash ("" to skip)
+     * ARGV: ttl, session ttl, maxlen, session id, message id, n, [index, chunk json] * n, [field, value]...
+     * Returns next expected index before the batch
+     */
+    private static final RedisScript<Long> XADD_CHUNKS_SCRIPT = new DefaultRedisScript<>(
+            "local n = tonumber(ARGV[6])\n" +
+            "local fields = 7 + 2 * n\n" +
+            "if #ARGV >= fields and KEYS[4] ~= '' then\n" +
+            "  redis.call('HSET', KEYS[4], unpack(ARGV, fields))\n" +
+            "  redis.call('EXPIRE', KEYS[4], ARGV[2])\n" +
+            "end\n" +
+            "local nextIndex = tonumber(redis.call('GET', KEYS[2]) or '0')\n" +
+            "local first = nextIndex\n" +
+            "for i = 0, n - 1 do\n" +
+            "  local index = tonumber(ARGV[7 + 2 * i])\n" +
+            "  if index >= nextIndex then\n" +
+            "    local id = redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[3], '*',\n" +
+            "        'type', 'CHUNK', 'messageId', ARGV[5], 'index', index, 'data', ARGV[8 + 2 * i])\n" +
+            "    if redis.call('HSETNX', KEYS[3], 'first', id) == 1 then\n" +
+            "      redis.call('HSET', KEYS[3], 'session', ARGV[4])\n" +
+            "    end\n" +
+            "    nextIndex = index + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "if nextIndex > first then\n" +
+            "  redis.call('SET', KEYS[2], nextIndex, 'EX', ARGV[1])\n" +
+            "  redis.call('EXPIRE', KEYS[3], ARGV[1])\n" +
+            "  redis.call('EXPIRE', KEYS[1], ARGV[1])\n" +
+            "end\n" +
+            "return first",
+            Long.class);
+
+    /**
+     * XADD a COMPLETE/ERROR entry with approximate trimming and extend the log TTL
+     * KEYS: session log
+     * ARGV: maxlen, ttl, [field, value]...
+     */
+    private static final RedisScript<String> XADD_EVENT_SCRIPT = new DefaultRedisScript<>(
+            "local id = redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', unpack(ARGV, 3))\n" +
+            "if redis.call('TTL', KEYS[1]) < tonumber(ARGV[2]) then\n" +
+            "  redis.call('EXPIRE', KEYS[1], ARGV[2])\n" +
+            "end\n" +
+            "return id",
+            String.class);
+
+    /**
+     * XADD a wake-up entry (only the latest is kept) and extend the key's TTL
+     * KEYS: wake-up stream
+     * ARGV: ttl ms
+     */
+    private static final RedisScript<String> WAKEUP_SCRIPT = new DefaultRedisScript<>(
+            "local id = redis.call('XADD', KEYS[1], 'MAXLEN', '1', '*', 'w', '1')\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1])\n" +
+            "return id",
+            String.class);
+
+    // Log TTL set by events; chunk batches refresh it with the chunk TTL
+    private static final Duration EVENT_TTL = Duration.ofMinutes(5);
+    // Entries per XRANGE page during recovery
+    private static final int READ_PAGE_SIZE = 200;
+    // Entries per XREAD across all subscribed sessions
+    private static final int READ_BATCH_SIZE = 500;
+    // Wake-up stream outlives an idle reader by far; a new entry recreates it anyway
+    private static final Duration WAKEUP_TTL = Duration.ofMinutes(1);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final long maxLength;
+    private final Duration blockTimeout;
+    private final String wakeupKey = WAKEUP_KEY.replace("{nodeId}", UUID.randomUUID().toString());
+
+    // sessionId -> subscription (last seen ID + listeners)
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Object readerMonitor = new Object();
+    private volatile boolean running;
+    private Thread readerThread;
+    // Last wake-up entry seen by the reader (reader thread only)
+    private String wakeupLastId = "0-0";
+
+    public RedisStreamLog(StringRedisTemplate redisTemplate,
+                          ObjectMapper objectMapper,
+                          @Value("${stream.cache-backend:list}") String backend,
+                          @Value("${stream.log.max-length:10000}") long maxLength,
+                          @Value("${stream.log.block-ms:200}") long blockMs) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = "stream".equalsIgnoreCase(backend);
+        this.maxLength = maxLength;
+        this.blockTimeout = Duration.ofMillis(blockMs);
+
+        if (enabled) {
+            log.info("Redis Streams chunk backend enabled: maxLength={}, block={}ms", maxLength, blockMs);
+        }
+    }
+
+    /**
+     * Whether chunks are stored and fanned out through Redis Streams
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * XADD a batch of chunks to the session log (one script call)
+     */
+    public Long appendChunks(String sessionId,
+                             String messageId,
+                             List<StreamChunk> chunks,
+                             List<String> chunkJsons,
+                             String sessionKey,
+                             List<String> sessionFields,
+                             Duration ttl,
+                             Duration sessionTtl) {
+        List<String> args = new ArrayList<>(6 + chunks.size() * 2 + sessionFields.size());
+        args.add(String.valueOf(ttl.getSeconds()));
+        args.add(String.valueOf(sessionTtl.getSeconds()));
+        args.add(String.valueOf(maxLength));
+        args.add(sessionId);
+        args.add(messageId);
+        args.add(String.valueOf(chunks.size()));
+        for (int i = 0; i < chunks.size(); i++) {
+            args.add(String.valueOf(chunks.get(i).getIndex()));
+            args.add(chunkJsons.get(i));
+        }
+        args.addAll(sessionFields);
+
+        return redisTemplate.execute(XADD_CHUNKS_SCRIPT,
+                List.of(logKey(sessionId),
+                        NEXT_INDEX_KEY.replace("{messageId}", messageId),
+                        MESSAGE_LOG_KEY.replace("{messageId}", messageId),
+                        sessionKey),
+                args.toArray());
+    }
+
+    /**
+     * Append a COMPLETE or ERROR event to the session log (one script call)
+     */
+    public void appendEvent(String sessionId, PubSubMessage.Type type, String messageId, String data) {
+        redisTemplate.execute(XADD_EVENT_SCRIPT,
+                List.of(logKey(sessionId)),
+                String.valueOf(maxLength),
+                String.valueOf(EVENT_TTL.getSeconds()),
+                FIELD_TYPE, type.name(),
+                FIELD_MESSAGE_ID, messageId != null ? messageId : "",
+                FIELD_DATA, data != null ? data : "");
+    }
+
+    /**
+     * Read chunks of a message in [fromIndex, toIndex) with paged XRANGE
+     * Starts at the message's first entry so older messages are skipped, and
+     * stops at toIndex or the message's COMPLETE/ERROR entry
+     */
+    public List<StreamChunk> readChunks(String messageId, int fromIndex, int toIndex) {
+        String messageLogKey = MESSAGE_LOG_KEY.replace("{messageId}", messageId);
+        List<Object> location = redisTemplate.opsForHash().multiGet(messageLogKey, List.of("session", "first"));
+        if (location.get(0) == null || location.get(1) == null) {
+            return Collections.emptyList();
+        }
+
+        String key = logKey((String) location.get(0));
+        Range<String> range = Range.rightUnbounded(Range.Bound.inclusive((String) location.get(1)));
+        List<StreamChunk> chunks = new ArrayList<>();
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream()
+                    .range(key, range, Limit.limit().count(READ_PAGE_SIZE));
+            if (records == null || records.isEmpty()) {
+                return chunks;
+            }
+
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<Object, Object> entry = record.getValue();
+                if (!messageId.equals(entry.get(FIELD_MESSAGE_ID))) {
+                    continue;
+                }
+                if (!"CHUNK".equals(entry.get(FIELD_TYPE))) {
+                    return chunks;  // Message completed or failed: no chunks follow
+                }
+                int index = Integer.parseInt((String) entry.get(FIELD_INDEX));
+                if (index < fromIndex) {
+                    continue;
+                }
+                if (index >= toIndex) {
+                    return chunks;
+                }
+                try {
+                    chunks.add(objectMapper.readValue((String) entry.get(FIELD_DATA), StreamChunk.class));
+                } catch (Exception e) {
+                    log.error("Failed to deserialize chunk from stream log: messageId={}, index={}",
+                            messageId, index, e);
+                }
+            }
+
+            if (records.size() < READ_PAGE_SIZE) {
+                return chunks;
+            }
+            range = Range.rightUnbounded(Range.Bound.exclusive(records.get(records.size() - 1).getId().getValue()));
+        }
+    }
+
+    /**
+     * Next expected chunk index for a message (0 if unknown)
+     */
+    public int nextIndex(String messageId) {
+        String value = redisTemplate.opsForValue().get(NEXT_INDEX_KEY.replace("{messageId}", messageId));
+        return value != null ? Integer.parseInt(value) : 0;
+    }
+
+    /**
+     * Apply final TTL to message metadata on completion
+     */
+    public void expireMessage(String messageId, Duration ttl) {
+        redisTemplate.expire(MESSAGE_LOG_KEY.replace("{messageId}", messageId), ttl);
+        redisTemplate.expire(NEXT_INDEX_KEY.replace("{messageId}", messageId), ttl);
+    }
+
+    /**
+     * Subscribe to a session log from its current tail
+     * Entries are delivered in log order on the node's reader thread
+     */
+    public void subscribe(String sessionId, Consumer<PubSubMessage> listener) {
+        // The tail is read outside the map's compute (no Redis I/O under its bin lock)
+        // and only when the session has no subscription yet
+        String tailId = null;
+        boolean[] added = new boolean[1];
+        Subscription subscription;
+        while (true) {
+            String fromId = tailId;
+            subscription = subscriptions.compute(sessionId, (id, existing) -> {
+                if (existing == null && fromId == null) {
+                    return null;
+                }
+                Subscription sub = existing;
+                if (sub == null) {
+                    sub = new Subscription(fromId);
+                    added[0] = true;
+                }
+                sub.listeners.add(listener);
+                return sub;
+            });
+            if (subscription != null) {
+                break;
+            }
+            tailId = currentTailId(sessionId);
+        }
+        ensureReaderStarted();
+        if (added[0]) {
+            wakeReader();
+        }
+
+        log.info("Subscribed to stream log: sessionId={}, fromId={}", sessionId, subscription.lastId);
+    }
+
+    /**
+     * Remove a listener; the session is dropped from XREAD when none remain
+     */
+    public void unsubscribe(String sessionId, Consumer<PubSubMessage> listener) {
+        boolean[] removed = new boolean[1];
+        subscriptions.computeIfPresent(sessionId, (id, subscription) -> {
+            subscription.listeners.remove(listener);
+            removed[0] = subscription.listeners.isEmpty();
+            return removed[0] ? null : subscription;
+        });
+        if (removed[0]) {
+            wakeReader();
+        }
+    }
+
+    private String currentTailId(String sessionId) {
+        // Start from the last existing entry so nothing written after subscribe is missed
+        List<MapRecord<String, Object, Object>> last = redisTemplate.opsForStream()
+                .reverseRange(logKey(sessionId), Range.unbounded(), Limit.limit().count(1));
+        return last == null || last.isEmpty() ? "0-0" : last.get(0).getId().getValue();
+    }
+
+    /**
+     * End the reader's current XREAD so it re-reads with the new session set
+     * The entry persists until read, so a wake-up sent between two reads is not lost
+     */
+    private void wakeReader() {
+        if (!running) {
+            return;
+        }
+        try {
+            redisTemplate.execute(WAKEUP_SCRIPT, List.of(wakeupKey), String.valueOf(WAKEUP_TTL.toMillis()));
+        } catch (Exception e) {
+            // The reader still picks up the change after the current block period
+            log.warn("Failed to wake stream log reader: {}", e.getMessage());
+        }
+    }
+
+    private void ensureReaderStarted() {
+        synchronized (readerMonitor) {
+            if (!running) {
+                running = true;
+                readerThread = new Thread(this::readLoop, "stream-log-reader");
+                readerThread.setDaemon(true);
+                readerThread.start();
+            }
+            readerMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Blocking multi-key XREAD loop
+     * Runs on a connection of its own so the block never holds up shared template
+     * connections, and includes the wake-up stream so subscription changes end the block
+     */
+    private void readLoop() {
+        StringRedisConnection connection = null;
+        try {
+            while (running) {
+                try {
+                    if (subscriptions.isEmpty()) {
+                        synchronized (readerMonitor) {
+                            readerMonitor.wait(1000);
+                        }
+                        continue;
+                    }
+                    if (connection == null) {
+                        connection = new DefaultStringRedisConnection(
+                                redisTemplate.getRequiredConnectionFactory().getConnection());
+                    }
+
+                    List<StreamOffset<String>> offsets = new ArrayList<>(subscriptions.size() + 1);
+                    offsets.add(StreamOffset.create(wakeupKey, ReadOffset.from(wakeupLastId)));
+                    subscriptions.forEach((sessionId, subscription) ->
+                            offsets.add(StreamOffset.create(logKey(sessionId), ReadOffset.from(subscription.lastId))));
+
+                    List<StringRecord> records = connection.xReadAsString(
+                            StreamReadOptions.empty().count(READ_BATCH_SIZE).block(blockTimeout),
+                            offsets.toArray(StreamOffset[]::new));
+
+                    if (records != null) {
+                        for (StringRecord record : records) {
+                            if (wakeupKey.equals(record.getStream())) {
+                                wakeupLastId = record.getId().getValue();
+                            } else {
+                                dispatch(record);
+                            }
+                        }
+                    }
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    if (running) {
+                        log.error("Error reading stream log: {}", e.getMessage());
+                        // Reconnect on the next cycle
+                        connection = closeQuietly(connection);
+                        try {
+                            Thread.sleep(blockTimeout.toMillis());
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    private StringRedisConnection closeQuietly(StringRedisConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (Exception e) {
+                log.debug("Failed to close stream log reader connection: {}", e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private void dispatch(StringRecord record) {
+        String sessionId = record.getStream().substring(LOG_KEY.indexOf('{'));
+        Subscription subscription = subscriptions.get(sessionId);
+        if (subscription == null) {
+            return;
+        }
+        subscription.lastId = record.getId().getValue();
+
+        PubSubMessage message;
+        try {
+            message = toPubSubMessage(sessionId, record.getValue());
+        } catch (Exception e) {
+            log.error("Failed to decode stream log entry: sessionId={}, id={}",
+                    sessionId, record.getId(), e);
+            return;
+        }
+
+        for (Consumer<PubSubMessage> listener : subscription.listeners) {
+            try {
+                listener.accept(message);
+            } catch (Exception e) {
+                log.error("Stream log listener failed: sessionId={}", sessionId, e);
+            }
+        }
+    }
+
+    private PubSubMessage toPubSubMessage(String sessionId, Map<String, String> entry) throws Exception {
+        PubSubMessage.Type type = PubSubMessage.Type.valueOf(entry.get(FIELD_TYPE));
+        String data = entry.get(FIELD_DATA);
+        String messageId = entry.get(FIELD_MESSAGE_ID);
+
+        PubSubMessage.PubSubMessageBuilder builder = PubSubMessage.builder()
+                .type(type)
+                .sessionId(sessionId)
+                .messageId(messageId)
+                .timestamp(Instant.now());
+
+        switch (type) {
+            case CHUNK -> builder.data(objectMapper.readValue(data, StreamChunk.class));
+            case COMPLETE -> builder.data(objectMapper.readValue(data, Message.class));
+            case ERROR -> builder.error(data);
+        }
+        return builder.build();
+    }
+
+    private String logKey(String sessionId) {
+        return LOG_KEY.replace("{sessionId}", sessionId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        synchronized (readerMonitor) {
+            readerMonitor.notifyAll();
+        }
+        if (readerThread != null) {
+            readerThread.interrupt();
+        }
+    }
+
+    private static class Subscription {
+        volatile String lastId;
+        final List<Consumer<PubSubMessage>> listeners = new CopyOnWriteArrayList<>();
+
+        Subscription(String lastId) {
+            this.lastId = lastId;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.service.MetricsService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Per-session serial executor (actor lanes)
+ *
+ * Sessions are hashed onto a fixed set of single-threaded lanes. Every
+ * append, session update and recovery for a session runs in submission
+ * order on its lane, so work owned by this node needs no locks.
+ *
+ * Sessions streamed by this node are pinned; distributed locks are only
+ * needed for sessions that are not pinned here (cross-node contention).
+ *
+ * Lane tasks make blocking Redis calls, so each lane's queue is bounded:
+ * a full lane rejects new tasks instead of buffering without limit, and the
+ * caller decides how to shed them (see ChatOrchestrator).
+ */
+@Component
+@Slf4j
+public class SessionLaneExecutor {
+
+    private static final ThreadLocal<Integer> CURRENT_LANE = new ThreadLocal<>();
+    private static final String REJECTED_COUNTER = "session.lane.rejected";
+
+    private final ThreadPoolExecutor[] lanes;
+    private final Set<String> pinnedSessions = ConcurrentHashMap.newKeySet();
+    private final MetricsService metricsService;
+
+    public SessionLaneExecutor(MetricsService metricsService,
+                               @Value("${stream.lanes.count:0}") int laneCount,
+                               @Value("${stream.lanes.queue-capacity:10000}") int queueCapacity,
+                               @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.metricsService = metricsService;
+        int count = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        boolean virtual = VirtualThreads.resolve(virtualThreads, "session lanes");
+        this.lanes = new ThreadPoolExecutor[count];
+        for (int i = 0; i < count; i++) {
+            final int lane = i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> VirtualThreads.newThread(() -> {
+                        CURRENT_LANE.set(lane);
+                        r.run();
+                    }, "session-lane-" + lane, virtual));
+        }
+        log.info("Session lanes initialized: count={}, queueCapacity={}, virtualThreads={}",
+                count, queueCapacity, virtual);
+    }
+
+    /**
+     * Enqueue a task on the session's lane
+     *
+     * @return false if the lane's queue is full and the task was not accepted
+     */
+    public boolean execute(String sessionId, Runnable task) {
+        try {
+            lanes[laneOf(sessionId)].execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Error in session lane task: sessionId={}", sessionId, e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            metricsService.incrementCounter(REJECTED_COUNTER);
+            log.warn("Session lane full, task rejected: sessionId={}, lane={}", sessionId, laneOf(sessionId));
+            return false;
+        }
+    }
+
+    /**
+     * Run a task on the session's lane and wait for its result
+     * Runs inline when already called from that lane
+     *
+     * @throws RejectedExecutionException the lane's queue is full
+     */
+    public <T> T call(String sessionId, Callable<T> task, Duration timeout) throws Exception {
+        int lane = laneOf(sessionId);
+        Integer current = CURRENT_LANE.get();
+        if (current != null && current == lane) {
+            return task.call();
+        }
+
+        Future<T> future = lanes[lane].submit(task);
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Mark a session as owned by this node
+     */
+    public void pin(String sessionId) {
+        pinnedSessions.add(sessionId);
+    }
+
+    /**
+     * Release local ownership of a session
+     */
+    public void unpin(String sessionId) {
+        pinnedSessions.remove(sessionId);
+    }
+
+    /**
+     * Check if this node owns the session's writes
+     */
+    public boolean isPinned(String sessionId) {
+        return pinnedSessions.contains(sessionId);
+    }
+
+    private int laneOf(String sessionId) {
+        return Math.floorMod(sessionId != null ? sessionId.hashCode() : 0, lanes.length);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                if (!lane.awaitTermination(5, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                lane.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.demo.websocket.infrastructure;
 
+import com.demo.websocket.domain.ConnectionContext;
 import com.demo.websocket.domain.WebSocketSessionWrapper;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RMap;
+import org.redisson.api.RMapCache;
 import org.redisson.api.RSet;
 import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 
@@ -15,32 +17,53 @@ import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Local and distributed registry of WebSocket sessions
+ *
+ * Each session has an idle deadline on the shared timer wheel. A heartbeat
+ * only moves lastHeartbeat; when the deadline fires for a session that has
+ * been active since, it is rescheduled for the remaining time, so heartbeats
+ * never touch the wheel and expiry only visits sessions that are due.
+ *
+ * Entries of the distributed registry carry a TTL of twice the idle timeout,
+ * refreshed by the same deadline when it reschedules an active session. An
+ * entry left behind by a node that died expires on its own, so no node ever
+ * scans the whole registry.
+ */
 @Component
 @Slf4j
 public class SessionManager {
 
     private final ConcurrentHashMap<String, WebSocketSessionWrapper> activeSessions;
     private final ConcurrentHashMap<String, String> sessionIdToUserId;
+    // Reverse index: WebSocketSession id -> chat session id
+    private final ConcurrentHashMap<String, String> wsIdToSessionId;
     private final RedissonClient redissonClient;
-    private final ScheduledExecutorService cleanupExecutor;
+    private final TimerWheel timerWheel;
+    private final Duration idleTimeout;
+    // Idle deadline per session, owned by the connection it was scheduled for
+    private final ConcurrentHashMap<String, IdleCheck> idleChecks;
+    // Distributed entry TTL; longer than the longest gap between two refreshes
+    private final Duration registryTtl;
 
     // Distributed session registry using Redis
-    private static final String ACTIVE_SESSIONS_KEY = "sessions:active";
+    // RMapCache (per-entry TTL); a new key, since its encoding differs from the old RMap at sessions:active
+    public static final String ACTIVE_SESSIONS_KEY = "sessions:active:v2";
     private static final String USER_SESSIONS_KEY = "sessions:user:{userId}";
 
-    public SessionManager(RedissonClient redissonClient) {
+    public SessionManager(RedissonClient redissonClient,
+                          TimerWheel timerWheel,
+                          @Value("${websocket.heartbeat.idle-timeout-seconds:300}") long idleTimeoutSeconds) {
         this.activeSessions = new ConcurrentHashMap<>();
         this.sessionIdToUserId = new ConcurrentHashMap<>();
+        this.wsIdToSessionId = new ConcurrentHashMap<>();
+        this.idleChecks = new ConcurrentHashMap<>();
         this.redissonClient = redissonClient;
-        this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor();
-
-        // Schedule heartbeat and cleanup
-        cleanupExecutor.scheduleAtFixedRate(this::performHeartbeat, 30, 30, TimeUnit.SECONDS);
-        cleanupExecutor.scheduleAtFixedRate(this::cleanupStale, 60, 60, TimeUnit.SECONDS);
+        this.timerWheel = timerWheel;
+        this.idleTimeout = Duration.ofSeconds(idleTimeoutSeconds);
+        this.registryTtl = idleTimeout.multipliedBy(2);
     }
 
     /**
@@ -61,12 +84,17 @@ public class SessionManager {
                     .build();
 
             // Local registration
-            activeSessions.put(sessionId, wrapper);
+            WebSocketSessionWrapper previous = activeSessions.put(sessionId, wrapper);
+            if (previous != null) {
+                wsIdToSessionId.remove(previous.getWsSession().getId());
+            }
+            wsIdToSessionId.put(wsSession.getId(), sessionId);
             sessionIdToUserId.put(sessionId, userId);
+            scheduleIdleCheck(sessionId, wrapper, idleTimeout);
 
-            // Distributed registration in Redis
-            RMap<String, String> activeSessionsMap = redissonClient.getMap(ACTIVE_SESSIONS_KEY);
-            activeSessionsMap.put(sessionId, userId);
+            // Distributed registration in Redis, expiring unless refreshed by the idle deadline
+            RMapCache<String, String> activeSessionsMap = redissonClient.getMapCache(ACTIVE_SESSIONS_KEY);
+            activeSessionsMap.fastPut(sessionId, userId, registryTtl.toMillis(), TimeUnit.MILLISECONDS);
 
             // Track user's sessions
             RSet<String> userSessions = redissonClient.getSet(
@@ -95,11 +123,19 @@ public class SessionManager {
                 return;
             }
 
+            wsIdToSessionId.remove(wrapper.getWsSession().getId(), sessionId);
+            idleChecks.computeIfPresent(sessionId, (id, check) -> {
+                if (check.wrapper() != wrapper) {
+                    return check;
+                }
+                check.timeout().cancel();
+                return null;
+            });
             String userId = sessionIdToUserId.remove(sessionId);
 
             // Distributed cleanup
-            RMap<String, String> activeSessionsMap = redissonClient.getMap(ACTIVE_SESSIONS_KEY);
-            activeSessionsMap.remove(sessionId);
+            RMapCache<String, String> activeSessionsMap = redissonClient.getMapCache(ACTIVE_SESSIONS_KEY);
+            activeSessionsMap.fastRemove(sessionId);
 
             if (userId != null) {
                 RSet<String> userSessions = redissonClient.getSet(
@@ -126,14 +162,13 @@ public class SessionManager {
     }
 
     /**
-     * Get session ID from WebSocketSession
+     * Get session ID from WebSocketSession (O(1) via the connection context or reverse index)
      */
     public String getSessionId(WebSocketSession wsSession) {
-        return activeSessions.entrySet().stream()
-                .filter(entry -> entry.getValue().getWsSession().equals(wsSession))
-                .map(entry -> entry.getKey())
-                .findFirst()
-                .orElse(null);
+        if (wsSession.getAttributes().get(ConnectionContext.ATTRIBUTE) instanceof ConnectionContext context) {
+            return context.getSessionId();
+        }
+        return wsIdToSessionId.get(wsSession.getId());
     }
 
     /**
@@ -177,64 +212,58 @@ public class SessionManager {
         return activeSessions.size();
     }
 
-    /**
-     * Perform heartbeat check
-     */
-    private void performHeartbeat() {
-        try {
-            Instant timeout = Instant.now().minus(Duration.ofMinutes(5));
-
-            activeSessions.values().removeIf(wrapper -> {
-                if (wrapper.getLastHeartbeat().isBefore(timeout)) {
-                    log.warn("Session timed out: sessionId={}, lastHeartbeat={}",
-                            wrapper.getSessionId(), wrapper.getLastHeartbeat());
-                    unregisterSession(wrapper.getSessionId());
-                    return true;
-                }
-                return false;
-            });
-
-        } catch (Exception e) {
-            log.error("Error during heartbeat check", e);
-        }
+    private void scheduleIdleCheck(String sessionId, WebSocketSessionWrapper wrapper, Duration delay) {
+        idleChecks.compute(sessionId, (id, previous) -> {
+            if (activeSessions.get(id) != wrapper) {
+                return previous;  // Superseded: leave the newer connection's deadline alone
+            }
+            if (previous != null && previous.wrapper() != wrapper) {
+                previous.timeout().cancel();
+            }
+            return new IdleCheck(wrapper, timerWheel.schedule(() -> checkIdle(id, wrapper), delay));
+        });
     }
 
     /**
-     * Clean up stale entries from distributed registry
+     * Idle deadline fired: time the session out, or reschedule if it had a heartbeat since
      */
-    private void cleanupStale() {
+    private void checkIdle(String sessionId, WebSocketSessionWrapper wrapper) {
         try {
-            RMap<String, String> activeSessionsMap = redissonClient.getMap(ACTIVE_SESSIONS_KEY);
-
-            Set<String> distributedSessions = new HashSet<>(activeSessionsMap.keySet());
-            Set<String> localSessions = activeSessions.keySet();
-
-            // Find sessions in Redis but not in local map
-            distributedSessions.removeAll(localSessions);
-
-            if (!distributedSessions.isEmpty()) {
-                log.info("Cleaning up {} stale distributed sessions",
-                        distributedSessions.size());
-
-                distributedSessions.forEach(activeSessionsMap::remove);
+            if (activeSessions.get(sessionId) != wrapper) {
+                return;  // Unregistered or replaced by a newer connection
+            }
+            Instant deadline = wrapper.getLastHeartbeat().plus(idleTimeout);
+            Duration remaining = Duration.between(Instant.now(), deadline);
+            if (!remaining.isNegative() && !remaining.isZero()) {
+                scheduleIdleCheck(sessionId, wrapper, remaining);
+                // Still active: keep its distributed entry alive for another TTL
+                RMapCache<String, String> activeSessionsMap = redissonClient.getMapCache(ACTIVE_SESSIONS_KEY);
+                activeSessionsMap.fastPutAsync(sessionId, wrapper.getUserId(),
+                        registryTtl.toMillis(), TimeUnit.MILLISECONDS)
+                        .whenComplete((added, e) -> {
+                            if (e != null) {
+                                log.warn("Failed to refresh distributed session entry: sessionId={}", sessionId, e);
+                            }
+                        });
+                return;
             }
 
+            log.warn("Session timed out: sessionId={}, lastHeartbeat={}",
+                    sessionId, wrapper.getLastHeartbeat());
+            unregisterSession(sessionId);
+
         } catch (Exception e) {
-            log.error("Error during stale cleanup", e);
+            log.error("Error during idle check: sessionId={}", sessionId, e);
         }
     }
 
     @PreDestroy
     public void shutdown() {
         log.info("Shutting down SessionManager...");
-        cleanupExecutor.shutdown();
-        try {
-            if (!cleanupExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                cleanupExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            cleanupExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+        idleChecks.values().forEach(check -> check.timeout().cancel());
+        idleChecks.clear();
+    }
+
+    private record IdleCheck(WebSocketSessionWrapper wrapper, TimerWheel.Timeout timeout) {
     }
 }
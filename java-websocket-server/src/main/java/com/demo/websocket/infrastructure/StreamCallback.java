@@ -8,6 +8,20 @@ import com.demo.websocket.domain.StreamChunk;
  */
 public interface StreamCallback {
     void onChunk(StreamChunk chunk);
+
+    /**
+     * Chunk with its pre-encoded forms; override to reuse them
+     */
+    default void onChunk(ChunkEnvelope envelope) {
+        onChunk(envelope.getChunk());
+    }
+
+    /**
+     * Chunk cached but not delivered live (lane backlog); the receiver resumes it from the cache
+     */
+    default void onChunkSkipped(ChunkEnvelope envelope) {
+    }
+
     void onComplete(Message message);
     void onError(Throwable error);
 }
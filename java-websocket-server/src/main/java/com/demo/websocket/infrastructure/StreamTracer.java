@@ -0,0 +1,188 @@
+package com.demo.websocket.infrastructure;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-stream trace recorder for the chunk hot path
+ *
+ * Each session gets a fixed-size ring of structured events (stage,
+ * message id, chunk index, a numeric value and an optional detail), stored
+ * in preallocated parallel arrays: recording is a few field writes, with
+ * no string formatting and no log I/O. Older events are overwritten.
+ *
+ * Rings outlive their stream so a finished or failed stream can still be
+ * inspected; when more than max-sessions rings exist, the least recently
+ * written one is evicted. Dumped on demand (actuator endpoint "streamtrace")
+ * or to the log when a stream fails.
+ */
+@Component
+@Slf4j
+public class StreamTracer {
+
+    public enum Stage {
+        /** Legacy channel message received (value = body length) */
+        RECEIVED,
+        /** Chunk created (value = content length) */
+        CHUNK,
+        /** Chunk delivered to the local callback */
+        CALLBACK,
+        /** Chunk skipped live delivery past the lane backlog limit (value = pending chunks) */
+        SPILLED,
+        /** Chunk appended to the cache */
+        CACHED,
+        /** Chunk published for multi-node fan-out */
+        PUBLISHED,
+        /** Fan-out message received from Redis (value = body length) */
+        FANOUT_RECEIVED,
+        /** Frame queued on a WebSocket (detail = wsId, value = frame length) */
+        SOCKET_QUEUED,
+        /** Stream completed (value = total chunks) */
+        COMPLETE,
+        /** Stream failed (detail = error) */
+        ERROR
+    }
+
+    public record TraceEvent(Instant timestamp, Stage stage, String messageId, int index, long value, String detail) {
+    }
+
+    private final boolean enabled;
+    private final int bufferSize;
+    private final int maxSessions;
+    private final Map<String, TraceRing> rings = new ConcurrentHashMap<>();
+
+    public StreamTracer(@Value("${stream.trace.enabled:true}") boolean enabled,
+                        @Value("${stream.trace.buffer-size:256}") int bufferSize,
+                        @Value("${stream.trace.max-sessions:1000}") int maxSessions) {
+        this.enabled = enabled;
+        this.bufferSize = bufferSize;
+        this.maxSessions = maxSessions;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void record(String sessionId, Stage stage, String messageId, int index, long value) {
+        record(sessionId, stage, messageId, index, value, null);
+    }
+
+    public void record(String sessionId, Stage stage, String messageId, int index, long value, String detail) {
+        if (!enabled || sessionId == null) {
+            return;
+        }
+        TraceRing ring = rings.get(sessionId);
+        if (ring == null) {
+            ring = rings.computeIfAbsent(sessionId, id -> new TraceRing(bufferSize));
+            if (rings.size() > maxSessions) {
+                evictOldest();
+            }
+        }
+        ring.add(stage, messageId, index, value, detail);
+    }
+
+    /**
+     * Events of a session, oldest first (empty if none recorded)
+     */
+    public List<TraceEvent> dump(String sessionId) {
+        TraceRing ring = rings.get(sessionId);
+        return ring != null ? ring.snapshot() : Collections.emptyList();
+    }
+
+    /**
+     * Sessions with a trace ring and their number of retained events
+     */
+    public Map<String, Integer> sessions() {
+        Map<String, Integer> sessions = new TreeMap<>();
+        rings.forEach((id, ring) -> sessions.put(id, ring.size()));
+        return sessions;
+    }
+
+    /**
+     * Write a session's trace to the log, e.g. when its stream fails
+     */
+    public void dumpToLog(String sessionId, String reason) {
+        List<TraceEvent> events = dump(sessionId);
+        if (events.isEmpty()) {
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        for (TraceEvent event : events) {
+            out.append("\n  ").append(event.timestamp()).append(' ').append(event.stage())
+                    .append(" messageId=").append(event.messageId())
+                    .append(" index=").append(event.index())
+                    .append(" value=").append(event.value());
+            if (event.detail() != null) {
+                out.append(' ').append(event.detail());
+            }
+        }
+        log.warn("Stream trace for sessionId={} ({}), {} events:{}", sessionId, reason, events.size(), out);
+    }
+
+    private void evictOldest() {
+        rings.entrySet().stream()
+                .min(Comparator.comparingLong(entry -> entry.getValue().lastWrite))
+                .ifPresent(entry -> rings.remove(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * Fixed-size ring; writers for one session are serialized by its lane,
+     * the monitor only guards against concurrent fan-out and dump
+     */
+    private static final class TraceRing {
+        private final long[] timestamps;
+        private final Stage[] stages;
+        private final String[] messageIds;
+        private final int[] indexes;
+        private final long[] values;
+        private final String[] details;
+        private long written;
+        volatile long lastWrite;
+
+        TraceRing(int size) {
+            timestamps = new long[size];
+            stages = new Stage[size];
+            messageIds = new String[size];
+            indexes = new int[size];
+            values = new long[size];
+            details = new String[size];
+        }
+
+        synchronized void add(Stage stage, String messageId, int index, long value, String detail) {
+            long now = System.currentTimeMillis();
+            int slot = (int) (written++ % timestamps.length);
+            timestamps[slot] = now;
+            stages[slot] = stage;
+            messageIds[slot] = messageId;
+            indexes[slot] = index;
+            values[slot] = value;
+            details[slot] = detail;
+            lastWrite = now;
+        }
+
+        synchronized int size() {
+            return (int) Math.min(written, timestamps.length);
+        }
+
+        synchronized List<TraceEvent> snapshot() {
+            int size = size();
+            List<TraceEvent> events = new ArrayList<>(size);
+            for (long i = written - size; i < written; i++) {
+                int slot = (int) (i % timestamps.length);
+                events.add(new TraceEvent(Instant.ofEpochMilli(timestamps[slot]), stages[slot],
+                        messageIds[slot], indexes[slot], values[slot], details[slot]));
+            }
+            return events;
+        }
+    }
+}
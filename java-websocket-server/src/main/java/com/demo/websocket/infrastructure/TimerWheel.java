@@ -0,0 +1,332 @@
+package com.demo.websocket.infrastructure;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared hashed timer wheel for timeouts and periodic maintenance
+ *
+ * A single worker thread advances the wheel one slot per tick; a timeout
+ * lands in the slot of its deadline with the number of full rotations still
+ * to go. Scheduling and cancelling are O(1) and lock-free (queued for the
+ * worker), and a tick only touches the timeouts of one slot, so expiring
+ * costs O(expired) instead of scanning everything that is scheduled.
+ * Deadlines are rounded up to the tick, which suits idle timeouts and
+ * maintenance, not latency-sensitive work.
+ *
+ * Expired tasks run on a small task pool, so a slow task never delays the wheel.
+ */
+@Component
+@Slf4j
+public class TimerWheel {
+
+    /** Handle of a scheduled task */
+    public interface Timeout {
+        /** False if the task already ran or was cancelled */
+        boolean cancel();
+    }
+
+    /** Timeouts moved from the pending queue into the wheel per tick, so a burst can't stall it */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+    private final ExecutorService taskExecutor;
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+    private long tick;
+
+    public TimerWheel(@Value("${timer.tick-ms:100}") long tickMs,
+                      @Value("${timer.wheel-size:512}") int wheelSize,
+                      @Value("${timer.task-threads:2}") int taskThreads) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+
+        AtomicInteger taskIndex = new AtomicInteger();
+        this.taskExecutor = Executors.newFixedThreadPool(Math.max(1, taskThreads), r -> {
+            Thread thread = new Thread(r, "timer-task-" + taskIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, "timer-wheel");
+        worker.setDaemon(true);
+        worker.start();
+
+        log.info("Timer wheel started: tick={}ms, slots={}, taskThreads={}", tickMs, size, taskThreads);
+    }
+
+    /**
+     * Run a task once after the delay
+     */
+    public Timeout schedule(Runnable task, Duration delay) {
+        Entry entry = new Entry(task, System.nanoTime() - startTime + Math.max(0, delay.toNanos()));
+        if (running) {
+            pending.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Run a task repeatedly, the next run scheduled a period after the previous one finished
+     */
+    public Timeout scheduleWithFixedDelay(String name, Runnable task, Duration initialDelay, Duration period) {
+        Periodic periodic = new Periodic(name, task, period);
+        periodic.current = schedule(periodic, initialDelay);
+        return periodic;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        taskExecutor.shutdown();
+        try {
+            if (!taskExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                taskExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            taskExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = startTime + deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                }
+                continue;  // Re-check: sleep may return early
+            }
+
+            try {
+                removeCancelled();
+                transferPending();
+                wheel[(int) (tick & mask)].expire(deadline);
+            } catch (Exception e) {
+                log.error("Error advancing timer wheel", e);
+            }
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry entry = pending.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.state.get() == CANCELLED) {
+                continue;
+            }
+            long calculated = entry.deadline / tickNanos;
+            entry.remainingRounds = (calculated - tick) / wheel.length;
+            // Already overdue: fire on the current tick
+            long slot = Math.max(calculated, tick);
+            wheel[(int) (slot & mask)].add(entry);
+        }
+    }
+
+    private void removeCancelled() {
+        Entry entry;
+        while ((entry = cancelled.poll()) != null) {
+            if (entry.bucket != null) {
+                entry.bucket.remove(entry);
+            }
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Timer task failed", e);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Timer task rejected: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * One-shot timeout, linked into one wheel slot (worker thread only)
+     */
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        long remainingRounds;
+        Bucket bucket;
+        Entry prev;
+        Entry next;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+            // Unlinked by the worker on its next tick
+            cancelled.add(this);
+            return true;
+        }
+
+        void expire() {
+            if (state.compareAndSet(INIT, EXPIRED)) {
+                execute(task);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts in one slot
+     */
+    private final class Bucket {
+        private Entry head;
+        private Entry tail;
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            if (head == null) {
+                head = tail = entry;
+            } else {
+                tail.next = entry;
+                entry.prev = tail;
+                tail = entry;
+            }
+        }
+
+        /**
+         * Expire every timeout due this rotation; the rest wait another round
+         */
+        void expire(long deadline) {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.remainingRounds <= 0) {
+                    remove(entry);
+                    if (entry.deadline <= deadline) {
+                        entry.expire();
+                    } else {
+                        // Placed in the wrong slot; let the worker place it again
+                        pending.add(entry);
+                    }
+                } else if (entry.state.get() == CANCELLED) {
+                    remove(entry);
+                } else {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+        }
+
+        void remove(Entry entry) {
+            if (entry.bucket != this) {
+                return;
+            }
+            if (entry.prev != null) {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            }
+            if (entry == head) {
+                head = entry.next;
+            }
+            if (entry == tail) {
+                tail = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            entry.bucket = null;
+        }
+    }
+
+    /**
+     * Periodic task that reschedules itself after each run
+     */
+    private final class Periodic implements Timeout, Runnable {
+        final String name;
+        final Runnable task;
+        final Duration period;
+        volatile Timeout current;
+        volatile boolean cancelled;
+
+        Periodic(String name, Runnable task, Duration period) {
+            this.name = name;
+            this.task = task;
+            this.period = period;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Periodic task failed: {}", name, e);
+            } finally {
+                if (!cancelled) {
+                    current = schedule(this, period);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            Timeout scheduled = current;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.demo.websocket.infrastructure;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Thread creation for the virtual-thread execution mode
+ *
+ * Enabled with spring.threads.virtual.enabled, the same switch Spring Boot
+ * uses to run Tomcat request handling on virtual threads. The code compiles
+ * for Java 17 and the images run Java 21, so the Java 21 API is looked up
+ * reflectively: on an older runtime the mode falls back to daemon platform
+ * threads. The mode is off by default and has not been load-tested against
+ * the platform-thread pools.
+ *
+ * Code running on these threads must not block while holding a monitor
+ * (synchronized or a ConcurrentHashMap compute) - a blocked virtual thread
+ * would pin its carrier. Use ReentrantLock around I/O instead.
+ */
+@Slf4j
+public final class VirtualThreads {
+
+    /** Thread.ofVirtual().name(name).unstarted(task), or null before Java 21 */
+    private static final MethodHandle OF_VIRTUAL;
+    private static final MethodHandle NAME;
+    private static final MethodHandle UNSTARTED;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle unstarted = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualBuilder));
+            name = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class));
+            unstarted = lookup.findVirtual(builder, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+        } catch (ReflectiveOperationException e) {
+            // Runtime without virtual threads
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Whether the runtime supports virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Resolve the configured mode against the runtime, logging a fallback once per component
+     */
+    public static boolean resolve(boolean requested, String component) {
+        if (requested && !isSupported()) {
+            log.warn("Virtual threads requested for {} but not supported by Java {}, using platform threads",
+                    component, Runtime.version().feature());
+            return false;
+        }
+        return requested;
+    }
+
+    /**
+     * New unstarted thread: virtual if requested and supported, otherwise a daemon platform thread
+     */
+    public static Thread newThread(Runnable task, String name, boolean virtual) {
+        if (virtual && isSupported()) {
+            try {
+                Object builder = OF_VIRTUAL.invoke();
+                builder = NAME.invoke(builder, name);
+                return (Thread) UNSTARTED.invoke(builder, task);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to create virtual thread " + name, e);
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
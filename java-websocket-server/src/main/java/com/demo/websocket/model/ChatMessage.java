@@ -1,5 +1,6 @@
 package com.demo.websocket.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -26,6 +27,13 @@ public class ChatMessage {
 
     private String chunk; // For streaming chunks
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean delta; // true when only chunk is sent and the client appends it
+
+    @JsonProperty("chunk_index")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer chunkIndex; // Stream chunk index, set on streaming chunks
+
     private Long timestamp;
 
     @JsonProperty("is_complete")
@@ -0,0 +1,280 @@
+package com.demo.websocket.service;
+
+import com.demo.websocket.model.ChatMessage;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * L1 cache of chat:history:* lists, parsed and pre-serialized per session
+ *
+ * Each entry keeps the raw JSON of every list element (sent to clients
+ * as-is) next to its parsed ChatMessage, so repeated connects, reconnects
+ * and extra tabs of a session read history from memory. Bounded by the
+ * approximate size of the cached JSON.
+ *
+ * The lists are append-only (Python RPUSHes, then EXPIREs), so a cached
+ * entry is kept coherent by appending the new tail:
+ * - keyspace notifications: an rpush event marks the entry stale, the next
+ *   read fetches only the missing elements; any other change except expire
+ *   drops the entry
+ * - otherwise every read compares the cached size with LLEN
+ *
+ * The server configuration is shared, so it is never changed from here:
+ * notifications are used only if notify-keyspace-events already covers
+ * K, l, g and x (e.g. redis-server --notify-keyspace-events Klgx).
+ */
+@Component
+@Slf4j
+public class ChatHistoryCache implements MessageListener {
+
+    private static final String KEY_PREFIX = "chat:history:";
+    private static final PatternTopic KEYSPACE_PATTERN = new PatternTopic("__keyspace@*__:" + KEY_PREFIX + "*");
+    /** Per-element overhead on top of the JSON characters (parsed copy, list slots) */
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    /**
+     * Immutable snapshot of one history list
+     * messages holds null for elements that could not be parsed, so list indexes stay aligned with Redis
+     */
+    public record CachedHistory(List<String> json, List<ChatMessage> messages, boolean stale) {
+
+        static final CachedHistory EMPTY = new CachedHistory(Collections.emptyList(), Collections.emptyList(), false);
+
+        public int size() {
+            return json.size();
+        }
+
+        CachedHistory markStale() {
+            return stale ? this : new CachedHistory(json, messages, true);
+        }
+
+        int weight() {
+            long bytes = 0;
+            for (String entry : json) {
+                bytes += entry.length() * 2L + ENTRY_OVERHEAD_BYTES;
+            }
+            return (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+    }
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MetricsService metricsService;
+    private final ObjectReader messageReader;
+    private final boolean enabled;
+    private final boolean keyspaceNotifications;
+    private final Cache<String, CachedHistory> cache;
+    /** Bumped on every notification; a load that overlaps one is cached as stale */
+    private final AtomicLong notifications = new AtomicLong();
+    private volatile boolean notificationsActive;
+
+    public ChatHistoryCache(RedisTemplate<String, String> redisTemplate,
+                            RedisMessageListenerContainer listenerContainer,
+                            MetricsService metricsService,
+                            ObjectMapper objectMapper,
+                            @Value("${cache.history.enabled:true}") boolean enabled,
+                            @Value("${cache.history.max-weight-bytes:33554432}") long maxWeightBytes,
+                            @Value("${cache.history.expire-after-access-minutes:10}") long expireAfterAccessMinutes,
+                            @Value("${cache.history.keyspace-notifications:true}") boolean keyspaceNotifications) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.metricsService = metricsService;
+        this.messageReader = objectMapper.readerFor(ChatMessage.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.enabled = enabled;
+        this.keyspaceNotifications = keyspaceNotifications;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String sessionId, CachedHistory history) -> history.weight())
+                .expireAfterAccess(Duration.ofMinutes(expireAfterAccessMinutes))
+                .build();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (keyspaceNotifications && keyspaceNotificationsConfigured()) {
+            listenerContainer.addMessageListener(this, KEYSPACE_PATTERN);
+            notificationsActive = true;
+            log.info("History cache enabled with keyspace invalidation: pattern={}", KEYSPACE_PATTERN);
+        } else {
+            log.info("History cache enabled with length checks on every read");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Current history of a session, loading or extending the cached copy as needed
+     * Returns null if Redis could not be read
+     */
+    public CachedHistory get(String sessionId) {
+        String key = KEY_PREFIX + sessionId;
+        try {
+            CachedHistory cached = cache.getIfPresent(sessionId);
+            if (cached == null) {
+                metricsService.recordCacheMiss("HISTORY_L1");
+                return load(sessionId, key);
+            }
+            if (!cached.stale() && notificationsActive) {
+                metricsService.recordCacheHit("HISTORY_L1");
+                return cached;
+            }
+            return refresh(sessionId, key, cached);
+        } catch (Exception e) {
+            log.error("Error reading history for session {}: {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    public void invalidate(String sessionId) {
+        cache.invalidate(sessionId);
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Keyspace notification: channel __keyspace@db__:chat:history:{sessionId}, body = event
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        int keyStart = channel.indexOf(KEY_PREFIX);
+        if (keyStart < 0) {
+            return;
+        }
+        String sessionId = channel.substring(keyStart + KEY_PREFIX.length());
+        String event = new String(message.getBody(), StandardCharsets.UTF_8);
+        notifications.incrementAndGet();
+
+        switch (event) {
+            case "rpush", "rpushx" -> cache.asMap().computeIfPresent(sessionId, (id, history) -> history.markStale());
+            case "expire", "persist" -> {
+                // TTL refresh after each append, content unchanged
+            }
+            default -> cache.invalidate(sessionId);
+        }
+    }
+
+    private CachedHistory load(String sessionId, String key) {
+        long seen = notifications.get();
+        List<String> entries = redisTemplate.opsForList().range(key, 0, -1);
+        if (entries == null || entries.isEmpty()) {
+            return CachedHistory.EMPTY;
+        }
+        CachedHistory history = new CachedHistory(List.copyOf(entries), parse(sessionId, entries), false);
+        // A notification during the read may have been missed; verify on the next read
+        cache.put(sessionId, notifications.get() == seen ? history : history.markStale());
+        log.debug("Cached history for session {}: {} entries", sessionId, history.size());
+        return history;
+    }
+
+    private CachedHistory refresh(String sessionId, String key, CachedHistory cached) {
+        Long length = redisTemplate.opsForList().size(key);
+        if (length == null || length == 0) {
+            cache.invalidate(sessionId);
+            return CachedHistory.EMPTY;
+        }
+        if (length < cached.size()) {
+            // Deleted and recreated, not an append
+            cache.invalidate(sessionId);
+            return load(sessionId, key);
+        }
+
+        CachedHistory refreshed;
+        if (length == cached.size()) {
+            metricsService.recordCacheHit("HISTORY_L1");
+            refreshed = cached.stale() ? new CachedHistory(cached.json(), cached.messages(), false) : cached;
+        } else {
+            List<String> tail = redisTemplate.opsForList().range(key, cached.size(), length - 1);
+            if (tail == null) {
+                tail = Collections.emptyList();
+            }
+            List<String> json = new ArrayList<>(cached.size() + tail.size());
+            json.addAll(cached.json());
+            json.addAll(tail);
+            List<ChatMessage> messages = new ArrayList<>(json.size());
+            messages.addAll(cached.messages());
+            messages.addAll(parse(sessionId, tail));
+            refreshed = new CachedHistory(Collections.unmodifiableList(json),
+                    Collections.unmodifiableList(messages), false);
+            log.debug("Appended {} entries to cached history of session {}", tail.size(), sessionId);
+        }
+        if (refreshed != cached) {
+            // Only if nothing changed meanwhile; otherwise the next read refreshes again
+            cache.asMap().replace(sessionId, cached, refreshed);
+        }
+        return refreshed;
+    }
+
+    private List<ChatMessage> parse(String sessionId, List<String> entries) {
+        List<ChatMessage> messages = new ArrayList<>(entries.size());
+        for (String json : entries) {
+            ChatMessage message = null;
+            try {
+                message = messageReader.readValue(json);
+            } catch (Exception e) {
+                log.warn("Skipping malformed history entry for session {}", sessionId);
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Whether the server publishes keyspace events for list and generic commands (K, l, g, x)
+     */
+    private boolean keyspaceNotificationsConfigured() {
+        try {
+            String current = redisTemplate.execute((RedisCallback<String>) connection -> {
+                Properties config = connection.serverCommands().getConfig("notify-keyspace-events");
+                return config != null ? config.getProperty("notify-keyspace-events", "") : "";
+            });
+            String flags = current != null ? current : "";
+            StringBuilder missing = new StringBuilder();
+            for (char flag : new char[]{'K', 'l', 'g', 'x'}) {
+                boolean covered = flag != 'K' && flags.indexOf('A') >= 0;
+                if (!covered && flags.indexOf(flag) < 0) {
+                    missing.append(flag);
+                }
+            }
+            if (missing.length() > 0) {
+                log.warn("Keyspace notifications not configured (notify-keyspace-events=\"{}\", missing {}), "
+                        + "history cache falls back to length checks", flags, missing);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Keyspace notifications unavailable ({}), history cache falls back to length checks",
+                    e.getMessage());
+            return false;
+        }
+    }
+}
@@ -4,10 +4,14 @@ import com.demo.websocket.model.ChatMessage;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 @Slf4j
 @Service
@@ -15,17 +19,118 @@ public class ChatHistoryService {
 
     private final RedisTemplate<String, String> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final ChatHistoryCache historyCache;
+
+    /**
+     * Reply of both scripts: {first index, n, n message ids, n entries}
+     * Ids are decoded server-side ('' for unparseable entries) so callers can dedupe without parsing
+     */
+    private static final String PAGE_REPLY =
+            "local page = redis.call('LRANGE', KEYS[1], from, to)\n" +
+            "local reply = {tostring(from), tostring(#page)}\n" +
+            "for i = 1, #page do\n" +
+            "  local ok, entry = pcall(cjson.decode, page[i])\n" +
+            "  local id = ok and type(entry) == 'table' and entry.message_id\n" +
+            "  reply[#reply + 1] = type(id) == 'string' and id or ''\n" +
+            "end\n" +
+            "for i = 1, #page do reply[#reply + 1] = page[i] end\n" +
+            "return reply";
+
+    /**
+     * One page of history, read atomically with the list length
+     * KEYS: history list; ARGV: before (-1 = latest), limit
+     * History is append-only, so indexes are stable cursors
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisScript<List> PAGE_SCRIPT = new DefaultRedisScript<>(
+            "local len = redis.call('LLEN', KEYS[1])\n" +
+            "local before = tonumber(ARGV[1])\n" +
+            "if before < 0 or before > len then before = len end\n" +
+            "if before == 0 then return {'0', '0'} end\n" +
+            "local from = math.max(before - tonumber(ARGV[2]), 0)\n" +
+            "local to = before - 1\n" +
+            PAGE_REPLY,
+            List.class);
+
+    /**
+     * Entries newer than a given message, found by scanning back from the tail
+     * KEYS: history list; ARGV: message id, max entries to scan
+     * Returns {'-1', '0'} if the message is not among the last max entries
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisScript<List> AFTER_SCRIPT = new DefaultRedisScript<>(
+            "local len = redis.call('LLEN', KEYS[1])\n" +
+            "local floor = math.max(len - tonumber(ARGV[2]), 0)\n" +
+            "local from = -1\n" +
+            "local hi = len\n" +
+            "while from < 0 and hi > floor do\n" +
+            "  local lo = math.max(hi - 32, floor)\n" +
+            "  local scan = redis.call('LRANGE', KEYS[1], lo, hi - 1)\n" +
+            "  for i = #scan, 1, -1 do\n" +
+            "    local ok, entry = pcall(cjson.decode, scan[i])\n" +
+            "    if ok and type(entry) == 'table' and entry.message_id == ARGV[1] then\n" +
+            "      from = lo + i\n" +
+            "      break\n" +
+            "    end\n" +
+            "  end\n" +
+            "  hi = lo\n" +
+            "end\n" +
+            "if from < 0 then return {'-1', '0'} end\n" +
+            "if from >= len then return {tostring(from), '0'} end\n" +
+            "local to = len - 1\n" +
+            PAGE_REPLY,
+            List.class);
+
+    /**
+     * History entries as stored (raw JSON, oldest first) with their message ids
+     * cursor: list index of the first entry, pass it as "before" to fetch the previous page
+     */
+    public record HistoryPage(List<String> messages, List<String> messageIds, long cursor, boolean hasMore) {
+
+        static final HistoryPage EMPTY = new HistoryPage(Collections.emptyList(), Collections.emptyList(), 0, false);
+
+        /**
+         * This page without the given messages
+         */
+        public HistoryPage without(Set<String> excluded) {
+            if (excluded.isEmpty()) {
+                return this;
+            }
+            List<String> keptMessages = new ArrayList<>(messages.size());
+            List<String> keptIds = new ArrayList<>(messageIds.size());
+            for (int i = 0; i < messages.size(); i++) {
+                if (!excluded.contains(messageIds.get(i))) {
+                    keptMessages.add(messages.get(i));
+                    keptIds.add(messageIds.get(i));
+                }
+            }
+            return new HistoryPage(keptMessages, keptIds, cursor, hasMore);
+        }
+    }
 
     public ChatHistoryService(RedisTemplate<String, String> redisTemplate,
-                             ObjectMapper objectMapper) {
+                             ObjectMapper objectMapper,
+                             ChatHistoryCache historyCache) {
         this.redisTemplate = redisTemplate;
         this.objectMapper = objectMapper;
+        this.historyCache = historyCache;
     }
 
     /**
      * Get chat history for a session from Redis
      */
     public List<ChatMessage> getHistory(String sessionId) {
+        ChatHistoryCache.CachedHistory cached = cachedHistory(sessionId);
+        if (cached != null) {
+            List<ChatMessage> messages = new ArrayList<>(cached.size());
+            for (ChatMessage message : cached.messages()) {
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        }
+
         List<ChatMessage> messages = new ArrayList<>();
         String key = "chat:history:" + sessionId;
 
@@ -45,12 +150,103 @@ public class ChatHistoryService {
         return messages;
     }
 
+    /**
+     * Get one page of chat history without deserializing it
+     * before < 0 returns the latest page; otherwise the entries just before that index
+     */
+    public HistoryPage getPage(String sessionId, long before, int limit) {
+        ChatHistoryCache.CachedHistory cached = cachedHistory(sessionId);
+        if (cached != null) {
+            int end = before < 0 || before > cached.size() ? cached.size() : (int) before;
+            int from = Math.max(end - limit, 0);
+            return slice(cached, from, end);
+        }
+        return execute(PAGE_SCRIPT, sessionId, String.valueOf(before), String.valueOf(limit));
+    }
+
+    /**
+     * Get the entries stored after a message the client has already seen
+     * Cost grows with the number of newer entries, not with the history length.
+     * Returns null if the message is not among the last maxEntries entries.
+     */
+    public HistoryPage getPageAfter(String sessionId, String messageId, int maxEntries) {
+        ChatHistoryCache.CachedHistory cached = cachedHistory(sessionId);
+        if (cached != null) {
+            int floor = Math.max(cached.size() - maxEntries, 0);
+            for (int i = cached.size() - 1; i >= floor; i--) {
+                ChatMessage message = cached.messages().get(i);
+                if (message != null && messageId.equals(message.getMessageId())) {
+                    return slice(cached, i + 1, cached.size());
+                }
+            }
+            return null;
+        }
+        HistoryPage page = execute(AFTER_SCRIPT, sessionId, messageId, String.valueOf(maxEntries));
+        return page.cursor() < 0 ? null : page;
+    }
+
+    /**
+     * Cached history, or null to read Redis directly (cache disabled or unavailable)
+     */
+    private ChatHistoryCache.CachedHistory cachedHistory(String sessionId) {
+        return historyCache.isEnabled() ? historyCache.get(sessionId) : null;
+    }
+
+    /**
+     * Page of cached entries [from, end), cursor = from as with the scripts
+     */
+    private HistoryPage slice(ChatHistoryCache.CachedHistory cached, int from, int end) {
+        List<String> messages = new ArrayList<>(end - from);
+        List<String> messageIds = new ArrayList<>(end - from);
+        for (int i = from; i < end; i++) {
+            ChatMessage message = cached.messages().get(i);
+            if (message != null && message.getMessageId() != null) {
+                messages.add(cached.json().get(i));
+                messageIds.add(message.getMessageId());
+            }
+        }
+        return new HistoryPage(messages, messageIds, from, from > 0);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private HistoryPage execute(RedisScript<List> script, String sessionId, String... args) {
+        String key = "chat:history:" + sessionId;
+
+        try {
+            List<String> reply = redisTemplate.execute(script, List.of(key), (Object[]) args);
+            if (reply == null || reply.size() < 2) {
+                return HistoryPage.EMPTY;
+            }
+            long cursor = Long.parseLong(reply.get(0));
+            int count = Integer.parseInt(reply.get(1));
+            List<String> messages = new ArrayList<>(count);
+            List<String> messageIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = reply.get(2 + i);
+                String json = reply.get(2 + count + i);
+                // Entries are embedded as-is; skip anything that is not a JSON object
+                if (!id.isEmpty() && json.startsWith("{") && json.endsWith("}")) {
+                    messages.add(json);
+                    messageIds.add(id);
+                } else {
+                    log.warn("Skipping malformed history entry for session {}", sessionId);
+                }
+            }
+            log.debug("Retrieved history page for session {}: cursor={}, size={}", sessionId, cursor, messages.size());
+            return new HistoryPage(messages, messageIds, cursor, cursor > 0);
+        } catch (Exception e) {
+            log.error("Error retrieving history page for session {}: {}", sessionId, e.getMessage());
+            return HistoryPage.EMPTY;
+        }
+    }
+
     /**
      * Clear history for a session
      */
     public void clearHistory(String sessionId) {
         String key = "chat:history:" + sessionId;
         redisTemplate.delete(key);
+        historyCache.invalidate(sessionId);
         log.info("Cleared history for session {}", sessionId);
     }
 }
@@ -2,7 +2,7 @@ package com.demo.websocket.service;
 
 import com.demo.websocket.domain.ChatSession;
 import com.demo.websocket.domain.Message;
-import com.demo.websocket.domain.StreamChunk;
+import com.demo.websocket.infrastructure.ChunkEnvelope;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
@@ -69,22 +69,14 @@ public class EventPublisher {
     }
 
     /**
-     * Publish chunk received event
+     * Publish chunk received event (built once by the chunk envelope)
      */
-    public void publishChunkReceived(String sessionId, StreamChunk chunk) {
+    public void publishChunkReceived(ChunkEnvelope envelope) {
         if (!kafkaEnabled) {
             return;
         }
 
-        Map<String, Object> event = new HashMap<>();
-        event.put("eventType", "CHUNK_RECEIVED");
-        event.put("timestamp", Instant.now().toString());
-        event.put("sessionId", sessionId);
-        event.put("messageId", chunk.getMessageId());
-        event.put("chunkIndex", chunk.getIndex());
-        event.put("contentLength", chunk.getContent() != null ? chunk.getContent().length() : 0);
-
-        publishEvent(streamEventsTopic, sessionId, event, "CHUNK_RECEIVED");
+        publishEvent(streamEventsTopic, envelope.getSessionId(), envelope.chunkEvent(), "CHUNK_RECEIVED");
     }
 
     /**
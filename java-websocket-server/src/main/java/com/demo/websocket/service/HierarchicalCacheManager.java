@@ -1,6 +1,7 @@
 package com.demo.websocket.service;
 
 import com.demo.websocket.domain.ChatSession;
+import com.demo.websocket.infrastructure.TimerWheel;
 import com.demo.websocket.repository.ChatSessionRepository;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
@@ -12,9 +13,6 @@ import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Hierarchical Caching Strategy with Cache-Aside Pattern
@@ -39,12 +37,13 @@ public class HierarchicalCacheManager {
     private final Cache<String, ChatSession> l1Cache;
     
     // Stats tracking
-    private final ScheduledExecutorService statsExecutor;
+    private final TimerWheel.Timeout statsTask;
 
     public HierarchicalCacheManager(
             @Qualifier("sessionRedisTemplate") RedisTemplate<String, ChatSession> redisTemplate,
             ChatSessionRepository chatSessionRepository,
-            MetricsService metricsService) {
+            MetricsService metricsService,
+            TimerWheel timerWheel) {
         this.redisTemplate = redisTemplate;
         this.chatSessionRepository = chatSessionRepository;
         this.metricsService = metricsService;
@@ -58,8 +57,7 @@ public class HierarchicalCacheManager {
             .build();
         
         // Start stats reporting
-        this.statsExecutor = Executors.newSingleThreadScheduledExecutor();
-        startStatsReporting();
+        this.statsTask = startStatsReporting(timerWheel);
     }
 
     /**
@@ -221,8 +219,8 @@ public class HierarchicalCacheManager {
     /**
      * Start periodic stats reporting
      */
-    private void startStatsReporting() {
-        statsExecutor.scheduleAtFixedRate(() -> {
+    private TimerWheel.Timeout startStatsReporting(TimerWheel timerWheel) {
+        return timerWheel.scheduleWithFixedDelay("cache-stats", () -> {
             try {
                 CacheStats stats = getL1Stats();
                 log.info("L1 Cache Stats - Size: {}, Hits: {}, Misses: {}, Hit Rate: {:.2f}%",
@@ -233,21 +231,13 @@ public class HierarchicalCacheManager {
             } catch (Exception e) {
                 log.error("Error reporting cache stats", e);
             }
-        }, 1, 5, TimeUnit.MINUTES);
+        }, Duration.ofMinutes(1), Duration.ofMinutes(5));
     }
 
     /**
      * Shutdown cleanup
      */
     public void shutdown() {
-        statsExecutor.shutdown();
-        try {
-            if (!statsExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                statsExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            statsExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+        statsTask.cancel();
     }
 }
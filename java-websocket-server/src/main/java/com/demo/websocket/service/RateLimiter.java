@@ -0,0 +1,179 @@
+package com.demo.websocket.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Two-tier per-key rate limiter for one scope (e.g. connects, chat requests)
+ *
+ * Local tier: a lock-free token bucket per key (CAS on an immutable state)
+ * answers every check without I/O.
+ * Distributed tier: tokens taken locally are summed per key and applied in
+ * batches to a GCRA limit in Redis (stored as the theoretical arrival time,
+ * on Redis' clock), one script call per batch. A key past the shared limit
+ * is blocked locally until the time GCRA returns, so the limit holds across
+ * nodes with at most one sync interval of lag.
+ */
+@Slf4j
+final class RateLimiter {
+
+    /**
+     * Apply token counts to GCRA limits
+     * KEYS: limit keys
+     * ARGV: emission interval ms, burst tolerance ms, count per key...
+     * Returns per key the ms until it is within the limit again (0 = within)
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> GCRA_SCRIPT = new DefaultRedisScript<>(
+            "local t = redis.call('TIME')\n" +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)\n" +
+            "local interval = tonumber(ARGV[1])\n" +
+            "local tolerance = tonumber(ARGV[2])\n" +
+            "local result = {}\n" +
+            "for i, key in ipairs(KEYS) do\n" +
+            "  local tat = tonumber(redis.call('GET', key) or now)\n" +
+            "  if tat < now then tat = now end\n" +
+            "  tat = tat + tonumber(ARGV[2 + i]) * interval\n" +
+            "  redis.call('SET', key, tostring(tat), 'PX', math.ceil(tat - now) + 1000)\n" +
+            "  local allowAt = tat - tolerance\n" +
+            "  result[i] = allowAt > now and math.ceil(allowAt - now) or 0\n" +
+            "end\n" +
+            "return result",
+            List.class);
+
+    /** Keys per script call */
+    private static final int MAX_BATCH_KEYS = 128;
+
+    private final String scope;
+    private final double ratePerSecond;
+    private final int burst;
+    private final StringRedisTemplate redisTemplate;
+    private final Cache<String, Bucket> buckets;
+    private final Set<String> unsynced = ConcurrentHashMap.newKeySet();
+
+    RateLimiter(String scope, double ratePerSecond, int burst, StringRedisTemplate redisTemplate) {
+        this.scope = scope;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.redisTemplate = redisTemplate;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+    }
+
+    /**
+     * Take one token for the key
+     *
+     * @return 0 if allowed, otherwise the ms until a retry may succeed
+     */
+    long tryAcquire(String key) {
+        Bucket bucket = buckets.get(key, k -> new Bucket(burst, System.nanoTime()));
+
+        long blocked = bucket.blockedUntil - System.currentTimeMillis();
+        if (blocked > 0) {
+            return blocked;
+        }
+
+        long now = System.nanoTime();
+        while (true) {
+            State state = bucket.state.get();
+            long refilledAt = Math.max(now, state.refilledAt());
+            double elapsed = (refilledAt - state.refilledAt()) / 1e9;
+            double tokens = Math.min(burst, state.tokens() + elapsed * ratePerSecond);
+            if (tokens < 1) {
+                return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerSecond * 1000));
+            }
+            if (bucket.state.compareAndSet(state, new State(tokens - 1, refilledAt))) {
+                break;
+            }
+        }
+
+        if (redisTemplate != null && bucket.taken.getAndIncrement() == 0) {
+            unsynced.add(key);
+        }
+        return 0;
+    }
+
+    /**
+     * Apply the tokens taken since the last sync to the shared GCRA limits
+     */
+    void sync() {
+        if (redisTemplate == null || unsynced.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        List<Bucket> synced = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        double intervalMs = 1000 / ratePerSecond;
+        args.add(String.valueOf(intervalMs));
+        args.add(String.valueOf(intervalMs * (burst - 1)));
+
+        for (String key : unsynced) {
+            unsynced.remove(key);
+            Bucket bucket = buckets.getIfPresent(key);
+            int taken = bucket != null ? bucket.taken.getAndSet(0) : 0;
+            if (taken == 0) {
+                continue;
+            }
+            keys.add("ratelimit:" + scope + ":" + key);
+            synced.add(bucket);
+            args.add(String.valueOf(taken));
+            if (keys.size() == MAX_BATCH_KEYS) {
+                apply(keys, synced, args);
+                keys = new ArrayList<>();
+                synced = new ArrayList<>();
+                args = new ArrayList<>(args.subList(0, 2));
+            }
+        }
+        if (!keys.isEmpty()) {
+            apply(keys, synced, args);
+        }
+    }
+
+    private void apply(List<String> keys, List<Bucket> synced, List<String> args) {
+        try {
+            List<?> result = redisTemplate.execute(GCRA_SCRIPT, keys, args.toArray());
+            if (result == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < result.size() && i < synced.size(); i++) {
+                long retryAfter = ((Number) result.get(i)).longValue();
+                if (retryAfter > 0) {
+                    synced.get(i).blockedUntil = now + retryAfter;
+                }
+            }
+        } catch (Exception e) {
+            // Local buckets keep limiting; the counts of this batch are not retried
+            log.warn("Rate limit sync failed: scope={}, keys={}, error={}", scope, keys.size(), e.getMessage());
+        }
+    }
+
+    private record State(double tokens, long refilledAt) {
+    }
+
+    private static final class Bucket {
+        final AtomicReference<State> state;
+        // Tokens taken since the last sync
+        final AtomicInteger taken = new AtomicInteger();
+        // Set when the shared limit is exceeded
+        volatile long blockedUntil;
+
+        Bucket(int burst, long now) {
+            this.state = new AtomicReference<>(new State(burst, now));
+        }
+    }
+}
@@ -4,32 +4,43 @@ import com.demo.websocket.handler.ChatWebSocketHandler;
 import com.demo.websocket.model.ChatMessage;
 import com.demo.websocket.domain.PubSubMessage;
 import com.demo.websocket.domain.StreamChunk;
+import com.demo.websocket.infrastructure.ChunkEnvelope;
+import com.demo.websocket.infrastructure.RedisChannelRouter;
+import com.demo.websocket.infrastructure.RedisStreamLog;
+import com.demo.websocket.infrastructure.StreamTracer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.connection.Message;
-import org.springframework.data.redis.connection.MessageListener;
-import org.springframework.data.redis.listener.ChannelTopic;
-import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
-public class RedisMessageListener implements MessageListener {
+public class RedisMessageListener implements RedisChannelRouter.LossAwareListener {
 
     private final ObjectMapper objectMapper;
-    private final RedisMessageListenerContainer listenerContainer;
-    private final Map<String, ChannelTopic> subscriptions = new ConcurrentHashMap<>();
+    private final RedisChannelRouter channelRouter;
+    private final RedisStreamLog streamLog;
+    private final StreamTracer streamTracer;
+    // sessionId -> subscribed channels (or stream log key)
+    private final Map<String, List<String>> subscriptions = new ConcurrentHashMap<>();
+    private final Consumer<PubSubMessage> streamLogListener = this::handlePubSubMessage;
 
     private ChatWebSocketHandler webSocketHandler;
 
     public RedisMessageListener(ObjectMapper objectMapper,
-                                @Lazy RedisMessageListenerContainer listenerContainer) {
+                                @Lazy RedisChannelRouter channelRouter,
+                                RedisStreamLog streamLog,
+                                StreamTracer streamTracer) {
         this.objectMapper = objectMapper;
-        this.listenerContainer = listenerContainer;
+        this.channelRouter = channelRouter;
+        this.streamLog = streamLog;
+        this.streamTracer = streamTracer;
     }
 
     public void setWebSocketHandler(ChatWebSocketHandler handler) {
@@ -44,20 +55,21 @@ public class RedisMessageListener implements MessageListener {
             webSocketHandler = handler;
         }
 
-        String chunkChannelName = "stream:channel:" + sessionId + ":chunk";
-        String completeChannelName = "stream:channel:" + sessionId + ":complete";
-        String errorChannelName = "stream:channel:" + sessionId + ":error";
+        if (streamLog.isEnabled()) {
+            if (subscriptions.putIfAbsent(sessionId, List.of("stream:log:" + sessionId)) == null) {
+                streamLog.subscribe(sessionId, streamLogListener);
+                log.info("Subscribed to Redis stream log for session: {}", sessionId);
+            }
+            return;
+        }
 
-        if (!subscriptions.containsKey(sessionId)) {
-            ChannelTopic chunkTopic = new ChannelTopic(chunkChannelName);
-            ChannelTopic completeTopic = new ChannelTopic(completeChannelName);
-            ChannelTopic errorTopic = new ChannelTopic(errorChannelName);
+        List<String> channels = List.of(
+                "stream:channel:" + sessionId + ":chunk",
+                "stream:channel:" + sessionId + ":complete",
+                "stream:channel:" + sessionId + ":error");
 
-            subscriptions.put(sessionId, chunkTopic);
-            // Store only one topic key but subscribe three topics
-            listenerContainer.addMessageListener(this, chunkTopic);
-            listenerContainer.addMessageListener(this, completeTopic);
-            listenerContainer.addMessageListener(this, errorTopic);
+        if (subscriptions.putIfAbsent(sessionId, channels) == null) {
+            channels.forEach(channel -> channelRouter.addRoute(channel, this));
             log.info("Subscribed to Redis fan-out channels for session: {}", sessionId);
         }
     }
@@ -66,39 +78,55 @@ public class RedisMessageListener implements MessageListener {
      * Unsubscribe from Redis PubSub channel for a specific session
      */
     public void unsubscribe(String sessionId) {
-        ChannelTopic topic = subscriptions.remove(sessionId);
-        if (topic != null) {
-            listenerContainer.removeMessageListener(this, topic);
-            log.info("Unsubscribed from Redis channel: {}", topic.getTopic());
+        List<String> channels = subscriptions.remove(sessionId);
+        if (channels != null && streamLog.isEnabled()) {
+            streamLog.unsubscribe(sessionId, streamLogListener);
+            log.info("Unsubscribed from Redis stream log: {}", channels);
+        } else if (channels != null) {
+            channels.forEach(channel -> channelRouter.removeRoute(channel, this));
+            log.info("Unsubscribed from Redis channels: {}", channels);
         }
     }
 
     @Override
     public void onMessage(Message message, byte[] pattern) {
         try {
-            String channel = new String(message.getChannel());
-            String body = new String(message.getBody());
+            byte[] body = message.getBody();
+            PubSubMessage pubSub = objectMapper.readValue(body, PubSubMessage.class);
+            streamTracer.record(pubSub.getSessionId(), StreamTracer.Stage.FANOUT_RECEIVED,
+                    pubSub.getMessageId(), -1, body.length);
+            handlePubSubMessage(pubSub);
 
-            log.info("RedisMessageListener received message from channel {}: {}", 
-                    channel, body.substring(0, Math.min(100, body.length())));
+        } catch (Exception e) {
+            log.error("Error processing Redis message: {}", e.getMessage(), e);
+        }
+    }
 
-            PubSubMessage pubSub = objectMapper.readValue(body, PubSubMessage.class);
+    /**
+     * Fan-out messages were lost to dispatch overflow: later chunks would build on a gap,
+     * so the session's local connections are closed and resume from the cache on reconnect
+     */
+    @Override
+    public void onMessagesLost(String channel) {
+        String sessionId = RedisChannelRouter.sessionKey(channel);
+        log.warn("Fan-out messages lost, resyncing local connections: sessionId={}, channel={}", sessionId, channel);
+        if (webSocketHandler != null) {
+            webSocketHandler.resyncSession(sessionId);
+        }
+    }
 
+    /**
+     * Convert a fan-out event to the frontend format and broadcast it
+     */
+    private void handlePubSubMessage(PubSubMessage pubSub) {
+        try {
             switch (pubSub.getType()) {
                 case CHUNK -> {
                     StreamChunk chunk = objectMapper.convertValue(pubSub.getData(), StreamChunk.class);
-                    ChatMessage chunkMsg = ChatMessage.builder()
-                            .messageId(chunk.getMessageId())
-                            .sessionId(pubSub.getSessionId())
-                            .userId("ai")
-                            .role("assistant")
-                            .content(chunk.getContent())
-                            .chunk(chunk.getContent())
-                            .timestamp(chunk.getTimestamp().toEpochMilli())
-                            .isComplete(false)
-                            .build();
+                    // One envelope per received chunk: the frame is encoded once for all local sockets
+                    ChunkEnvelope envelope = ChunkEnvelope.of(objectMapper, pubSub.getSessionId(), "ai", chunk);
                     if (webSocketHandler != null) {
-                        webSocketHandler.broadcastToSession(pubSub.getSessionId(), chunkMsg);
+                        webSocketHandler.broadcastChunk(pubSub.getSessionId(), envelope);
                     }
                 }
                 case COMPLETE -> {
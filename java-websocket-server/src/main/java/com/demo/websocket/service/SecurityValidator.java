@@ -1,5 +1,7 @@
 package com.demo.websocket.service;
 
+import com.demo.websocket.exception.RateLimitException;
+import com.demo.websocket.infrastructure.TimerWheel;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jwts;
@@ -9,11 +11,15 @@ import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SignatureException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.function.Function;
 
 /**
@@ -23,7 +29,7 @@ import java.util.function.Function;
  * - JWT token validation
  * - Token expiration checking
  * - User authorization
- * - Rate limiting
+ * - Rate limiting: per-user token buckets, synced in batches to GCRA limits in Redis
  */
 @Service
 @Slf4j
@@ -33,13 +39,44 @@ public class SecurityValidator {
     private final long tokenExpirationMs;
     private final MetricsService metricsService;
 
+    /** Rate-limited operations, each with its own limit */
+    public enum RateLimitScope {
+        CONNECT, CHAT
+    }
+
+    private final boolean rateLimitEnabled;
+    private final Map<RateLimitScope, RateLimiter> rateLimiters = new EnumMap<>(RateLimitScope.class);
+
     public SecurityValidator(
             @Value("${security.jwt.secret:default-secret-key-change-this-in-production-minimum-256-bits}") String secret,
             @Value("${security.jwt.expiration-ms:3600000}") long tokenExpirationMs,
-            MetricsService metricsService) {
+            MetricsService metricsService,
+            StringRedisTemplate redisTemplate,
+            TimerWheel timerWheel,
+            @Value("${security.rate-limit.enabled:true}") boolean rateLimitEnabled,
+            @Value("${security.rate-limit.distributed:true}") boolean distributed,
+            @Value("${security.rate-limit.sync-interval-ms:200}") long syncIntervalMs,
+            @Value("${security.rate-limit.connect.per-minute:30}") double connectPerMinute,
+            @Value("${security.rate-limit.connect.burst:10}") int connectBurst,
+            @Value("${security.rate-limit.chat.per-minute:20}") double chatPerMinute,
+            @Value("${security.rate-limit.chat.burst:5}") int chatBurst) {
         this.secretKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
         this.tokenExpirationMs = tokenExpirationMs;
         this.metricsService = metricsService;
+        this.rateLimitEnabled = rateLimitEnabled;
+
+        if (rateLimitEnabled) {
+            StringRedisTemplate shared = distributed ? redisTemplate : null;
+            rateLimiters.put(RateLimitScope.CONNECT, new RateLimiter("connect", connectPerMinute / 60, connectBurst, shared));
+            rateLimiters.put(RateLimitScope.CHAT, new RateLimiter("chat", chatPerMinute / 60, chatBurst, shared));
+            if (distributed) {
+                timerWheel.scheduleWithFixedDelay("rate-limit-sync",
+                        () -> rateLimiters.values().forEach(RateLimiter::sync),
+                        Duration.ofMillis(syncIntervalMs), Duration.ofMillis(syncIntervalMs));
+            }
+            log.info("Rate limiting enabled: connect={}/min (burst {}), chat={}/min (burst {}), distributed={}",
+                    connectPerMinute, connectBurst, chatPerMinute, chatBurst, distributed);
+        }
     }
 
     /**
@@ -165,13 +202,38 @@ public class SecurityValidator {
     }
 
     /**
-     * Validate rate limit for user
-     * TODO: Implement with Redis
+     * Validate rate limit for user (chat requests)
      */
     public boolean checkRateLimit(String userId) {
-        // For now, always allow
-        // In production, implement with Redis rate limiter
-        return true;
+        return acquire(userId, RateLimitScope.CHAT) == 0;
+    }
+
+    /**
+     * Take one request of the user's limit for the scope
+     *
+     * @throws RateLimitException with the delay after which a retry may succeed
+     */
+    public void enforceRateLimit(String userId, RateLimitScope scope) {
+        long retryAfterMs = acquire(userId, scope);
+        if (retryAfterMs > 0) {
+            throw new RateLimitException("Rate limit exceeded for " + scope.name().toLowerCase(), retryAfterMs);
+        }
+    }
+
+    /**
+     * 0 if allowed, otherwise ms until a retry may succeed
+     */
+    private long acquire(String userId, RateLimitScope scope) {
+        RateLimiter limiter = rateLimiters.get(scope);
+        if (!rateLimitEnabled || limiter == null || userId == null) {
+            return 0;
+        }
+        long retryAfterMs = limiter.tryAcquire(userId);
+        if (retryAfterMs > 0) {
+            metricsService.incrementCounter("security.rate_limited", "scope", scope.name());
+            log.debug("Rate limit exceeded: userId={}, scope={}, retryAfter={}ms", userId, scope, retryAfterMs);
+        }
+        return retryAfterMs;
     }
 
     /**
@@ -3,10 +3,12 @@ package com.demo.websocket.service;
 import com.demo.websocket.domain.ChatSession;
 import com.demo.websocket.domain.Message;
 import com.demo.websocket.domain.StreamChunk;
+import com.demo.websocket.infrastructure.ChunkEnvelope;
 import com.demo.websocket.infrastructure.PubSubListener;
 import com.demo.websocket.infrastructure.RedisPubSubPublisher;
 import com.demo.websocket.infrastructure.RedisStreamCache;
 import com.demo.websocket.infrastructure.StreamCallback;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -34,6 +36,7 @@ public class StreamCoordinator {
     private final RedisPubSubPublisher pubSubPublisher;
     private final HierarchicalCacheManager cacheManager;
     private final MetricsService metricsService;
+    private final ObjectMapper objectMapper;
     
     // Active streams tracking
     private final Map<String, StreamContext> activeStreams;
@@ -46,11 +49,13 @@ public class StreamCoordinator {
             RedisStreamCache streamCache,
             RedisPubSubPublisher pubSubPublisher,
             HierarchicalCacheManager cacheManager,
-            MetricsService metricsService) {
+            MetricsService metricsService,
+            ObjectMapper objectMapper) {
         this.streamCache = streamCache;
         this.pubSubPublisher = pubSubPublisher;
         this.cacheManager = cacheManager;
         this.metricsService = metricsService;
+        this.objectMapper = objectMapper;
         this.activeStreams = new ConcurrentHashMap<>();
     }
 
@@ -99,15 +104,18 @@ public class StreamCoordinator {
                 Thread.sleep(BACKPRESSURE_DELAY.toMillis());
             }
 
+            // Encoded at most once per form, shared by every sink below
+            ChunkEnvelope envelope = ChunkEnvelope.of(objectMapper, sessionId, context.session.getUserId(), chunk);
+
             // Store chunk in cache
-            streamCache.appendChunk(context.session.getMessageId(), chunk);
+            streamCache.appendChunk(context.session.getMessageId(), envelope, context.session);
 
             // Publish to PubSub for multi-node distribution
-            pubSubPublisher.publishChunk(sessionId, chunk);
+            pubSubPublisher.publishChunk(envelope);
 
             // Deliver to local callback
             context.pendingChunks.incrementAndGet();
-            context.callback.onChunk(chunk);
+            context.callback.onChunk(envelope);
             context.pendingChunks.decrementAndGet();
 
             // Update session
@@ -228,7 +236,7 @@ public class StreamCoordinator {
      * Subscribe to stream updates via PubSub
      */
     private void subscribeToStream(String sessionId, StreamContext context) {
-        pubSubPublisher.subscribe(sessionId, new PubSubListener() {
+        context.pubSubListener = new PubSubListener() {
             @Override
             public void onChunk(StreamChunk chunk) {
                 // Chunks are already processed locally, this is for multi-node sync
@@ -245,14 +253,18 @@ public class StreamCoordinator {
             public void onError(String error) {
                 log.error("Error received from PubSub: sessionId={}, error={}", sessionId, error);
             }
-        });
+        };
+        pubSubPublisher.subscribe(sessionId, context.pubSubListener);
     }
 
     /**
      * Cleanup stream resources
      */
     private void cleanup(String sessionId) {
-        activeStreams.remove(sessionId);
+        StreamContext context = activeStreams.remove(sessionId);
+        if (context != null && context.pubSubListener != null) {
+            pubSubPublisher.unsubscribe(sessionId, context.pubSubListener);
+        }
         log.debug("Cleaned up stream: sessionId={}", sessionId);
     }
 
@@ -279,6 +291,7 @@ public class StreamCoordinator {
         final AtomicInteger chunkCount;
         final AtomicInteger pendingChunks;
         Instant startTime;
+        PubSubListener pubSubListener;
 
         StreamContext(ChatSession session, StreamCallback callback) {
             this.session = session;
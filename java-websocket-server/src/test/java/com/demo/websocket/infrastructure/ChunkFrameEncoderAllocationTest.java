@@ -0,0 +1,138 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.domain.StreamChunk;
+import com.demo.websocket.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * ChunkFrameEncoder output and per-frame allocation against the ObjectMapper frame path
+ *
+ * The allocation probe only runs on request:
+ * mvn test -Dtest=ChunkFrameEncoderAllocationTest -Dbenchmark=true
+ */
+class ChunkFrameEncoderAllocationTest {
+
+    private static final int FRAMES_PER_ROUND = 200_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+    // 62-char token, a typical streamed delta
+    private static final String CONTENT = "The quick brown fox jumps over the lazy dog and keeps running.";
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    // Keeps results reachable so the JIT cannot drop the encoding
+    private long sink;
+
+    @Test
+    void encodesSameFrameAsObjectMapper() throws Exception {
+        for (boolean delta : new boolean[]{false, true}) {
+            StreamChunk chunk = chunk(delta);
+
+            String encoded = ChunkFrameEncoder.encode(objectMapper.getFactory(), "s1", "u1", chunk);
+
+            assertThat(objectMapper.readTree(encoded))
+                    .isEqualTo(objectMapper.readTree(objectMapperFrame(chunk)));
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void encoderAllocatesLessPerFrame() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "thread allocation counters unsupported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        StreamChunk chunk = chunk(false);
+        Frame objectMapperPath = () -> objectMapperFrame(chunk);
+        Frame encoderPath = () -> ChunkFrameEncoder.encode(objectMapper.getFactory(), "s1", "u1", chunk);
+
+        double[] mapper = measure(threads, objectMapperPath);
+        double[] encoder = measure(threads, encoderPath);
+
+        System.out.printf("ObjectMapper frame: %.0f B/op, %.2f us/op%n", mapper[0], mapper[1]);
+        System.out.printf("ChunkFrameEncoder:  %.0f B/op, %.2f us/op%n", encoder[0], encoder[1]);
+        assertThat(encoder[0]).isLessThan(mapper[0]);
+    }
+
+    /**
+     * Best of the measured rounds after warm-up: {bytes per frame, microseconds per frame}
+     */
+    private double[] measure(com.sun.management.ThreadMXBean threads, Frame frame) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            run(frame);
+        }
+
+        double bestBytes = Double.MAX_VALUE;
+        double bestMicros = Double.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            run(frame);
+            long elapsed = System.nanoTime() - start;
+            long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            bestBytes = Math.min(bestBytes, (double) bytes / FRAMES_PER_ROUND);
+            bestMicros = Math.min(bestMicros, elapsed / 1000.0 / FRAMES_PER_ROUND);
+        }
+        return new double[]{bestBytes, bestMicros};
+    }
+
+    private void run(Frame frame) throws Exception {
+        for (int i = 0; i < FRAMES_PER_ROUND; i++) {
+            sink += frame.encode().length();
+        }
+    }
+
+    /**
+     * The frame path ChunkEnvelope.frameJson used before ChunkFrameEncoder
+     */
+    private String objectMapperFrame(StreamChunk chunk) throws Exception {
+        ChatMessage message = ChatMessage.builder()
+                .messageId(chunk.getMessageId())
+                .sessionId("s1")
+                .userId("u1")
+                .role("assistant")
+                .content(chunk.isDelta() ? null : chunk.getContent())
+                .chunk(chunk.getContent())
+                .delta(chunk.isDelta() ? Boolean.TRUE : null)
+                .chunkIndex(chunk.getIndex())
+                .timestamp(chunk.getTimestamp().toEpochMilli())
+                .isComplete(false)
+                .build();
+        return objectMapper.writeValueAsString(Map.of(
+                "type", "message",
+                "data", message
+        ));
+    }
+
+    private StreamChunk chunk(boolean delta) {
+        return StreamChunk.builder()
+                .messageId("m1")
+                .index(42)
+                .content(CONTENT)
+                .type(StreamChunk.ChunkType.TEXT)
+                .metadata(delta ? Map.of(StreamChunk.DELTA_METADATA_KEY, true) : null)
+                .timestamp(Instant.ofEpochMilli(1_700_000_000_000L))
+                .build();
+    }
+
+    @FunctionalInterface
+    private interface Frame {
+        String encode() throws Exception;
+    }
+}
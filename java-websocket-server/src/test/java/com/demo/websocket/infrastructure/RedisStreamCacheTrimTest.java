@@ -0,0 +1,105 @@
+package com.demo.websocket.infrastructure;
+
+import com.demo.websocket.domain.StreamChunk;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Ack trimming of the list backend against a real Redis (TRIM_CHUNKS_SCRIPT)
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class RedisStreamCacheTrimTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+    private RedisStreamCache streamCache;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.getConnectionFactory().getConnection().serverCommands().flushAll();
+
+        RedisStreamLog streamLog = new RedisStreamLog(redisTemplate, objectMapper, "list", 10000, 200);
+        streamCache = new RedisStreamCache(redisTemplate, objectMapper, streamLog, false, 50, 32, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamCache.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void trimsOnlyAckedChunksWhenIndicesStartAtZero() {
+        append("m1", 0, 5);
+
+        streamCache.trimAcked("m1", 3);
+
+        assertThat(storedIndices("m1")).containsExactly(3, 4);
+        assertThat(streamCache.getChunks("m1", 3, 5)).extracting(StreamChunk::getIndex).containsExactly(3, 4);
+    }
+
+    @Test
+    void keepsUnackedChunksWhenIndicesDoNotStartAtZero() {
+        // A second message whose index continued from the previous one
+        append("m2", 57, 62);
+
+        streamCache.trimAcked("m2", 60);
+
+        assertThat(storedIndices("m2")).containsExactly(60, 61);
+    }
+
+    @Test
+    void ackBelowFirstStoredIndexTrimsNothing() {
+        append("m3", 57, 60);
+
+        streamCache.trimAcked("m3", 57);
+
+        assertThat(storedIndices("m3")).containsExactly(57, 58, 59);
+    }
+
+    private void append(String messageId, int fromIndex, int toIndex) {
+        for (int index = fromIndex; index < toIndex; index++) {
+            streamCache.appendChunk(messageId, StreamChunk.builder()
+                    .messageId(messageId)
+                    .index(index)
+                    .content("token-" + index)
+                    .type(StreamChunk.ChunkType.TEXT)
+                    .timestamp(Instant.now())
+                    .build());
+        }
+    }
+
+    private List<Integer> storedIndices(String messageId) {
+        return redisTemplate.opsForList().range("stream:chunks:" + messageId, 0, -1).stream()
+                .map(json -> {
+                    try {
+                        return objectMapper.readValue(json, StreamChunk.class).getIndex();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .toList();
+    }
+}